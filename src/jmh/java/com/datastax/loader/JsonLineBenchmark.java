@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.loader.parser.BenchmarkData;
+import com.datastax.loader.parser.DelimParser;
+import com.datastax.loader.parser.Parser;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The two halves of CqlDelimParser.parseJson(): JsonLineParser, which
+// reads each line straight into values, and the json-simple fallback,
+// which builds a JSONObject and parses its fields as strings.  Times are
+// per line.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonLineBenchmark {
+    public static final int LINES = 256;
+
+    @Param({"narrow", "wide"})
+    public String schema;
+
+    private JsonLineParser jsonLineParser;
+    private JSONParser jsonParser;
+    private DelimParser delimParser;
+    private List<String> names;
+    private String[] lines;
+
+    @Setup
+    public void setup() {
+        String[] types = schema.equals("wide") ? BenchmarkData.wide()
+            : BenchmarkData.NARROW;
+        names = BenchmarkData.columnNames(types.length);
+        List<DataType.Name> typeNames = new ArrayList<DataType.Name>();
+        List<Parser> parsers = new ArrayList<Parser>();
+        delimParser = new DelimParser();
+        for (String type : types) {
+            Parser p = BenchmarkData.parser(type);
+            typeNames.add(BenchmarkData.typeName(type));
+            parsers.add(p);
+            delimParser.add(p);
+        }
+        jsonLineParser = new JsonLineParser(names, typeNames, parsers,
+                                            DelimParser.DEFAULT_NULLSTRING);
+        jsonParser = new JSONParser();
+        lines = new BenchmarkData().jsonLines(names, types, LINES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void jsonLineParser(Blackhole bh) {
+        for (int i = 0; i < LINES; i++)
+            bh.consume(jsonLineParser.parse(lines[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void jsonSimple(Blackhole bh)
+        throws org.json.simple.parser.ParseException {
+        String[] row = new String[names.size()];
+        for (int i = 0; i < LINES; i++) {
+            JSONObject jsonObject = (JSONObject)jsonParser.parse(lines[i]);
+            for (int j = 0; j < row.length; j++) {
+                Object o = jsonObject.get(names.get(j));
+                row[j] = (null != o) ? o.toString() : null;
+            }
+            bh.consume(delimParser.parse(row));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Reading every line of an uncompressed file (in the page cache) with
+// MappedLineReader, as -mmap does, and with InputStreamReader plus
+// BufferedReader, as the loader does otherwise.  Times are per line.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineReaderBenchmark {
+    public static final int LINES = 100000;
+
+    // Roughly how many characters in a line
+    @Param({"40", "400"})
+    public int lineLength;
+
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("linereader", ".csv");
+        Random r = new Random(1);
+        BufferedWriter out = new BufferedWriter(new FileWriter(file));
+        try {
+            for (int i = 0; i < LINES; i++) {
+                StringBuilder line = new StringBuilder();
+                while (line.length() < lineLength)
+                    line.append(r.nextInt(1000000)).append(",field ")
+                        .append(r.nextInt(1000)).append(',');
+                out.write(line.toString());
+                out.write('\n');
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void bufferedReader(Blackhole bh) throws IOException {
+        read(new BufferedReader(new InputStreamReader(new FileInputStream(file))), bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void mappedLineReader(Blackhole bh) throws IOException {
+        read(new MappedLineReader(file), bh);
+    }
+
+    private static void read(BufferedReader reader, Blackhole bh)
+        throws IOException {
+        try {
+            String line;
+            while (null != (line = reader.readLine()))
+                bh.consume(line);
+        }
+        finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader.parser;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import javax.xml.bind.DatatypeConverter;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.driver.core.Row;
+
+// Generated input for the benchmarks, so they need neither files nor a
+// cluster.  Each type has a parser, built the way CqlDelimParser builds
+// it, and a generator for the field text the loader would see.  The
+// random seed is fixed so every run parses the same values.
+public class BenchmarkData {
+    public static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+    public static final String LOCAL_DATE_FORMAT = "yyyy-MM-dd";
+    public static final long SEED = 0x5eed;
+
+    // The types the benchmarks know about, in CQL spelling
+    public static final String[] TYPES = {
+        "int", "bigint", "smallint", "tinyint", "double", "float",
+        "decimal", "varint", "boolean", "text", "uuid", "inet", "blob",
+        "timestamp", "fasttimestamp", "date",
+        "list<int>", "set<text>", "map<text,int>"
+    };
+
+    // Ten columns of mostly numbers, as in a typical fact table
+    public static final String[] NARROW = {
+        "uuid", "int", "bigint", "double", "float", "boolean",
+        "timestamp", "text", "smallint", "decimal"
+    };
+
+    private static final String ALPHABET
+        = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    private static final long BASE_MILLIS = 1262304000000L; // 2010-01-01
+    private static final long SPAN_MILLIS = 10L * 365 * 24 * 3600 * 1000;
+
+    private Random random;
+    private SimpleDateFormat timestampFormat;
+    private SimpleDateFormat localDateFormat;
+
+    public BenchmarkData() {
+        random = new Random(SEED);
+        timestampFormat = new SimpleDateFormat(TIMESTAMP_FORMAT);
+        localDateFormat = new SimpleDateFormat(LOCAL_DATE_FORMAT);
+    }
+
+    // A hundred columns cycling through the scalar types
+    public static String[] wide() {
+        String[] ret = new String[100];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = TYPES[i % 16];
+        return ret;
+    }
+
+    public static Parser parser(String type) {
+        if (type.equals("int"))
+            return new IntegerParser(Locale.ENGLISH, true);
+        if (type.equals("bigint"))
+            return new LongParser(Locale.ENGLISH, true);
+        if (type.equals("smallint"))
+            return new ShortParser(Locale.ENGLISH, true);
+        if (type.equals("tinyint"))
+            return new ByteParser(Locale.ENGLISH, true);
+        if (type.equals("double"))
+            return new DoubleParser(Locale.ENGLISH, true);
+        if (type.equals("float"))
+            return new FloatParser(Locale.ENGLISH, true);
+        if (type.equals("decimal"))
+            return new BigDecimalParser();
+        if (type.equals("varint"))
+            return new BigIntegerParser();
+        if (type.equals("boolean"))
+            return new BooleanParser();
+        if (type.equals("text"))
+            return new StringParser();
+        if (type.equals("uuid"))
+            return new UUIDParser();
+        if (type.equals("inet"))
+            return new InetAddressParser();
+        if (type.equals("blob"))
+            return new ByteBufferParser();
+        if (type.equals("timestamp"))
+            return new DateParser(TIMESTAMP_FORMAT);
+        if (type.equals("fasttimestamp"))
+            return new TimestampParser(TIMESTAMP_FORMAT);
+        if (type.equals("date"))
+            return new LocalDateParser(LOCAL_DATE_FORMAT);
+        if (type.equals("list<int>"))
+            return new ListParser(parser("int"), ',', '[', ']');
+        if (type.equals("set<text>"))
+            return new SetParser(parser("text"), ',', '{', '}');
+        if (type.equals("map<text,int>"))
+            return new MapParser(parser("text"), parser("int"),
+                                 ',', '{', '}', ':');
+        throw new IllegalArgumentException("Unknown type: " + type);
+    }
+
+    public static DataType.Name typeName(String type) {
+        if (type.equals("fasttimestamp"))
+            return DataType.Name.TIMESTAMP;
+        if (type.startsWith("list<"))
+            return DataType.Name.LIST;
+        if (type.startsWith("set<"))
+            return DataType.Name.SET;
+        if (type.startsWith("map<"))
+            return DataType.Name.MAP;
+        return DataType.Name.valueOf(type.toUpperCase());
+    }
+
+    // Field text for one value of the given type.  Text values may contain
+    // the delimiter, quotes, and backslashes when tricky is set, so they
+    // exercise CSV quoting and escaping.
+    public String value(String type, boolean tricky) {
+        if (type.equals("int"))
+            return Integer.toString(random.nextInt());
+        if (type.equals("bigint"))
+            return Long.toString(random.nextLong());
+        if (type.equals("smallint"))
+            return Short.toString((short)random.nextInt());
+        if (type.equals("tinyint"))
+            return Byte.toString((byte)random.nextInt());
+        if (type.equals("double"))
+            return String.format(Locale.ENGLISH, "%.4f",
+                                 (random.nextDouble() - 0.5) * 1e6);
+        if (type.equals("float"))
+            return String.format(Locale.ENGLISH, "%.2f",
+                                 (random.nextFloat() - 0.5) * 1e4);
+        if (type.equals("decimal"))
+            return String.format(Locale.ENGLISH, "%.6f",
+                                 random.nextDouble() * 1e8);
+        if (type.equals("varint"))
+            return Long.toString(random.nextLong())
+                + Long.toString(Math.abs(random.nextLong()));
+        if (type.equals("boolean"))
+            return random.nextBoolean() ? "true" : "false";
+        if (type.equals("text"))
+            return text(4 + random.nextInt(28), tricky);
+        if (type.equals("uuid"))
+            return new UUID(random.nextLong(), random.nextLong()).toString();
+        if (type.equals("inet"))
+            return "10." + random.nextInt(256) + "." + random.nextInt(256)
+                + "." + random.nextInt(256);
+        if (type.equals("blob")) {
+            byte[] b = new byte[8 + random.nextInt(56)];
+            random.nextBytes(b);
+            return DatatypeConverter.printBase64Binary(b);
+        }
+        if (type.equals("timestamp") || type.equals("fasttimestamp"))
+            return timestampFormat.format(new Date(millis()));
+        if (type.equals("date"))
+            return localDateFormat.format(new Date(millis()));
+        if (type.equals("list<int>"))
+            return collection('[', ']', "int", null, 1 + random.nextInt(8));
+        if (type.equals("set<text>"))
+            return collection('{', '}', "text", null, 1 + random.nextInt(8));
+        if (type.equals("map<text,int>"))
+            return collection('{', '}', "text", "int", 1 + random.nextInt(8));
+        throw new IllegalArgumentException("Unknown type: " + type);
+    }
+
+    public String[] values(String type, int n) {
+        String[] ret = new String[n];
+        for (int i = 0; i < n; i++)
+            ret[i] = value(type, false);
+        return ret;
+    }
+
+    // Delimited lines for the given columns.  With tricky set, text
+    // fields that need it are quoted and their quotes escaped, as a
+    // CSV writer would.
+    public String[] lines(String[] types, String delim, int n,
+                          boolean tricky) {
+        String[] ret = new String[n];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.setLength(0);
+            for (int j = 0; j < types.length; j++) {
+                if (0 < j)
+                    sb.append(delim);
+                String v = value(types[j], tricky);
+                if (tricky && types[j].equals("text"))
+                    v = quote(v, delim);
+                sb.append(v);
+            }
+            ret[i] = sb.toString();
+        }
+        return ret;
+    }
+
+    // JSON objects, one per line, with a key for each column
+    public String[] jsonLines(List<String> names, String[] types, int n) {
+        String[] ret = new String[n];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.setLength(0);
+            sb.append('{');
+            for (int j = 0; j < types.length; j++) {
+                if (0 < j)
+                    sb.append(',');
+                sb.append('"').append(names.get(j)).append("\":");
+                String v = value(types[j], false);
+                if (isNumeric(types[j]))
+                    sb.append(v);
+                else
+                    sb.append('"').append(v.replace("\\", "\\\\")
+                                          .replace("\"", "\\\"")).append('"');
+            }
+            sb.append('}');
+            ret[i] = sb.toString();
+        }
+        return ret;
+    }
+
+    public static List<String> columnNames(int n) {
+        List<String> ret = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++)
+            ret.add("col" + i);
+        return ret;
+    }
+
+    // Parsed values for the given lines, for the format(Row) benchmarks
+    public static Object[][] parse(List<Parser> parsers, String[] lines,
+                                   String delim) throws ParseException {
+        Object[][] ret = new Object[lines.length][];
+        DelimParser dp = new DelimParser(delim);
+        for (Parser p : parsers)
+            dp.add(p);
+        for (int i = 0; i < lines.length; i++) {
+            List<Object> elements = dp.parse(lines[i]);
+            if (null == elements)
+                throw new ParseException("Could not parse: " + lines[i], 0);
+            ret[i] = elements.toArray();
+        }
+        return ret;
+    }
+
+    // A Row over fixed values.  The parsers only call isNull() and
+    // getObject() (see AbstractParser.format(Row, int)).
+    public static Row row(final Object[] values) {
+        InvocationHandler handler = new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("isNull"))
+                        return null == values[(Integer)args[0]];
+                    if (name.equals("getObject"))
+                        return values[(Integer)args[0]];
+                    if (name.equals("toString"))
+                        return Arrays.toString(values);
+                    throw new UnsupportedOperationException(name);
+                }
+            };
+        return (Row)Proxy.newProxyInstance(Row.class.getClassLoader(),
+                                           new Class<?>[] { Row.class },
+                                           handler);
+    }
+
+    public static boolean isNumeric(String type) {
+        return type.equals("int") || type.equals("bigint")
+            || type.equals("smallint") || type.equals("tinyint")
+            || type.equals("double") || type.equals("float")
+            || type.equals("decimal") || type.equals("varint")
+            || type.equals("boolean");
+    }
+
+    private long millis() {
+        return BASE_MILLIS + (long)(random.nextDouble() * SPAN_MILLIS);
+    }
+
+    private String text(int len, boolean tricky) {
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            int r = random.nextInt(tricky ? 80 : ALPHABET.length());
+            if (r < ALPHABET.length())
+                sb.append(ALPHABET.charAt(r));
+            else if (r < 70)
+                sb.append(' ');
+            else if (r < 75)
+                sb.append(',');
+            else
+                sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String quote(String v, String delim) {
+        if (!v.contains(delim) && !v.contains("\"") && !v.startsWith(" ")
+            && !v.endsWith(" "))
+            return v;
+        return "\"" + v.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private String collection(char begin, char end, String keyType,
+                              String valueType, int n) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(begin);
+        for (int i = 0; i < n; i++) {
+            if (0 < i)
+                sb.append(',');
+            sb.append(value(keyType, false));
+            if (null != valueType)
+                sb.append(':').append(value(valueType, false));
+        }
+        sb.append(end);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader.parser;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// One Parser at a time: parse from a String (the univocity path), parse
+// from a char buffer (the FieldTokenizer path), and format the parsed
+// value back to text (the unloader path).  Times are per value.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    public static final int VALUES = 1024;
+
+    @Param({"int", "bigint", "smallint", "tinyint", "double", "float",
+            "decimal", "varint", "boolean", "text", "uuid", "inet", "blob",
+            "timestamp", "fasttimestamp", "date",
+            "list<int>", "set<text>", "map<text,int>"})
+    public String type;
+
+    private Parser parser;
+    private String[] strings;
+    private char[][] chars;
+    private Object[] parsed;
+
+    @Setup
+    public void setup() throws ParseException {
+        parser = BenchmarkData.parser(type);
+        strings = new BenchmarkData().values(type, VALUES);
+        chars = new char[VALUES][];
+        parsed = new Object[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            chars[i] = strings[i].toCharArray();
+            // Collection parsers reuse their result, so each value gets
+            // its own parser
+            parsed[i] = BenchmarkData.parser(type).parse(strings[i]);
+            if (null == parsed[i])
+                throw new ParseException("Could not parse " + type + ": "
+                                         + strings[i], 0);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void parseString(Blackhole bh) throws ParseException {
+        for (int i = 0; i < VALUES; i++)
+            bh.consume(parser.parse(strings[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void parseChars(Blackhole bh) throws ParseException {
+        for (int i = 0; i < VALUES; i++)
+            bh.consume(parser.parse(chars[i], 0, chars[i].length));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void format(Blackhole bh) {
+        for (int i = 0; i < VALUES; i++)
+            bh.consume(parser.format(parsed[i]));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader.parser;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.Row;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Whole lines through DelimParser, as the loader parses them, and whole
+// rows through DelimParser.format(Row), as the unloader writes them.
+// The narrow schema is 10 columns and the wide one 100; quoted lines
+// have text fields with delimiters, quotes, and escapes in them.  Times
+// are per line.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowBenchmark {
+    public static final int LINES = 256;
+    public static final String DELIM = ",";
+
+    @Param({"narrow", "wide"})
+    public String schema;
+
+    @Param({"false", "true"})
+    public boolean quoted;
+
+    @Param({"false", "true"})
+    public boolean fastTokenizer;
+
+    private DelimParser delimParser;
+    private String[] lines;
+    private Row[] rows;
+
+    @Setup
+    public void setup() throws ParseException {
+        String[] types = schema.equals("wide") ? BenchmarkData.wide()
+            : BenchmarkData.NARROW;
+        List<Parser> parsers = new ArrayList<Parser>(types.length);
+        for (String type : types)
+            parsers.add(BenchmarkData.parser(type));
+        delimParser = new DelimParser(DELIM,
+                                      DelimParser.DEFAULT_CHARSPERCOLUMN,
+                                      DelimParser.DEFAULT_NULLSTRING,
+                                      DelimParser.DEFAULT_COMMENT_STRING);
+        for (Parser p : parsers)
+            delimParser.add(p);
+        delimParser.setFastTokenizer(fastTokenizer);
+        lines = new BenchmarkData().lines(types, DELIM, LINES, quoted);
+
+        Object[][] values = BenchmarkData.parse(parsers, lines, DELIM);
+        rows = new Row[LINES];
+        for (int i = 0; i < LINES; i++)
+            rows[i] = BenchmarkData.row(values[i]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parse(Blackhole bh) {
+        for (int i = 0; i < LINES; i++)
+            bh.consume(delimParser.parse(lines[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void format(Blackhole bh) {
+        for (int i = 0; i < LINES; i++)
+            bh.consume(delimParser.format(rows[i]));
+    }
+}
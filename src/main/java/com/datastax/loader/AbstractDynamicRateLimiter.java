@@ -15,8 +15,10 @@
  */
 package com.datastax.loader;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public abstract class AbstractDynamicRateLimiter extends RateLimiter {
-    protected long lastCheck = 0;
+    protected AtomicLong lastCheck = new AtomicLong(0);
     protected long howOften;
     protected double lastStat;
     protected double maxStat;
@@ -52,11 +54,14 @@ public abstract class AbstractDynamicRateLimiter extends RateLimiter {
         this.acquire(1);
     }
 
-    public synchronized void acquire(int permits) {
+    // Only the thread that claims the check adjusts the rate; the others
+    // go straight on to acquire
+    public void acquire(int permits) {
         long currTime = System.currentTimeMillis();
-        if (currTime - lastCheck > howOften) {
+        long last = lastCheck.get();
+        if ((currTime - last > howOften)
+            && lastCheck.compareAndSet(last, currTime)) {
             adjustRate();
-            lastCheck = currTime;
         }
         super.acquire(permits);
     }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.loader.futures.FutureManager;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+// Wraps a FutureManager to keep a low watermark for the checkpoint
+// journal.  Before each INSERT (or batch) is added, the task calls
+// setPosition() with the number of the last line read and the byte
+// offset after it.  Futures complete out of order, so each one gets a
+// mark in submission order, and the watermark moves up to a mark once it
+// and every mark before it succeeded.  A failed INSERT stops the
+// watermark for the rest of the file, so a resumed load sends it again.
+class CheckpointFutureManager implements FutureManager {
+    private static class Mark {
+        final long line;
+        final long offset;
+        boolean done = false;
+
+        Mark(long inLine, long inOffset) {
+            line = inLine;
+            offset = inOffset;
+        }
+    }
+
+    private FutureManager fm;
+    private CheckpointJournal journal;
+    private String key;
+    private long line = 0;
+    private long offset = -1;
+    private Deque<Mark> marks = new ArrayDeque<Mark>();
+    private boolean stuck = false;
+
+    public CheckpointFutureManager(FutureManager inFm,
+                                   CheckpointJournal inJournal, String inKey) {
+        fm = inFm;
+        journal = inJournal;
+        key = inKey;
+    }
+
+    public void setPosition(long inLine, long inOffset) {
+        line = inLine;
+        offset = inOffset;
+    }
+
+    public boolean acquire() {
+        return fm.acquire();
+    }
+
+    public boolean add(ResultSetFuture future, String lines, long sendNanos) {
+        if (!fm.add(future, lines, sendNanos))
+            return false;
+        final Mark mark = new Mark(line, offset);
+        synchronized (this) {
+            if (stuck)
+                return true;
+            marks.addLast(mark);
+        }
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(ResultSet rs) {
+                    advance(mark);
+                }
+                @Override
+                public void onFailure(Throwable t) {
+                    stop();
+                }
+            });
+        return true;
+    }
+
+    private void advance(Mark mark) {
+        Mark last = null;
+        synchronized (this) {
+            mark.done = true;
+            while (!marks.isEmpty() && marks.peekFirst().done)
+                last = marks.removeFirst();
+        }
+        if (null != last)
+            journal.update(key, last.line, last.offset);
+    }
+
+    // Nothing after a failure can be checkpointed, so stop keeping marks
+    private synchronized void stop() {
+        stuck = true;
+        marks.clear();
+    }
+
+    public boolean cleanup() {
+        return fm.cleanup();
+    }
+
+    public long getNumInserted() {
+        return fm.getNumInserted();
+    }
+}
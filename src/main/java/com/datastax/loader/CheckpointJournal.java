@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Records how far each input file (or chunk of a split file) has been
+// loaded, so an interrupted load can pick up where it left off.  Each
+// entry is the highest line number up to which every INSERT was
+// acknowledged, and the byte offset just past that line (-1 if the
+// reader could not tell).  Files that finished are marked done.  The
+// journal is a small text file, one entry per line:
+//   loading|done <TAB> line <TAB> offset <TAB> key
+// and is rewritten (to a temporary file that is then renamed over it)
+// every FLUSH_MS when something changed, and on close().
+public class CheckpointJournal {
+    public static final long FLUSH_MS = 1000;
+    private static final String LOADING = "loading";
+    private static final String DONE = "done";
+
+    private File file;
+    private Map<String, long[]> entries = new ConcurrentHashMap<String, long[]>();
+    private Map<String, Boolean> done = new ConcurrentHashMap<String, Boolean>();
+    private volatile boolean dirty = false;
+    private ScheduledExecutorService flusher;
+
+    public CheckpointJournal(File inFile) throws IOException {
+        file = inFile;
+        if (file.isFile())
+            load();
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "checkpoint-journal");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        flush();
+                    }
+                    catch (IOException e) {
+                        System.err.println("Could not write checkpoint "
+                                           + file + ": " + e.getMessage());
+                    }
+                }
+            }, FLUSH_MS, FLUSH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Chunks are keyed by their start, so a resumed load must use the
+    // same -splitSize to pick up their entries
+    public static String key(File infile, FileChunk chunk) {
+        String key = infile.getAbsolutePath();
+        if (null != chunk)
+            key = key + "@" + chunk.getStart();
+        return key;
+    }
+
+    private void load() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while (null != (line = reader.readLine())) {
+                String[] fields = line.split("\t", 4);
+                if (4 != fields.length)
+                    throw new IOException("Bad line in checkpoint " + file
+                                          + ": " + line);
+                try {
+                    entries.put(fields[3], new long[] {Long.parseLong(fields[1]),
+                                                       Long.parseLong(fields[2])});
+                }
+                catch (NumberFormatException e) {
+                    throw new IOException("Bad line in checkpoint " + file
+                                          + ": " + line);
+                }
+                if (DONE.equals(fields[0]))
+                    done.put(fields[3], true);
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    public boolean isDone(String key) {
+        return done.containsKey(key);
+    }
+
+    // {line, offset} to resume after, or null to start from the beginning
+    public long[] getResume(String key) {
+        return entries.get(key);
+    }
+
+    public void update(String key, long line, long offset) {
+        entries.put(key, new long[] {line, offset});
+        dirty = true;
+    }
+
+    public void done(String key, long line) {
+        entries.put(key, new long[] {line, -1});
+        done.put(key, true);
+        dirty = true;
+    }
+
+    // For a file that was moved away, so that a new file with the same
+    // name starts from the beginning
+    public void forget(String key) {
+        entries.remove(key);
+        done.remove(key);
+        dirty = true;
+    }
+
+    public synchronized void flush() throws IOException {
+        if (!dirty)
+            return;
+        dirty = false;
+        File tmp = new File(file.getPath() + ".tmp");
+        PrintStream out = new PrintStream(tmp);
+        for (Map.Entry<String, long[]> e : new TreeMap<String, long[]>(entries).entrySet())
+            out.println((isDone(e.getKey()) ? DONE : LOADING) + "\t"
+                        + e.getValue()[0] + "\t" + e.getValue()[1] + "\t"
+                        + e.getKey());
+        out.close();
+        if (out.checkError())
+            throw new IOException("Could not write " + tmp);
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Once everything is loaded the journal is removed, so that the next
+    // load with the same -checkpoint starts fresh
+    public void close(boolean finished) throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(FLUSH_MS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+        }
+        if (finished) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        dirty = true;
+        flush();
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import com.datastax.loader.CompressedOutputStream.Codec;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import org.xerial.snappy.SnappyInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+// Decompresses an input file ahead of the reader, the other half of
+// CompressedOutputStream.  A reader thread decompresses the file into
+// blocks and queues them, so the loading thread only copies bytes.  The
+// codec is found from the file's magic bytes: gzip, or the LZ4 block and
+// Snappy streams that cassandra-unloader's -compression writes.  A gzip
+// file made of BGZF members (bgzip output) says how long each member is,
+// so with more than one thread its members are read in groups and
+// inflated in parallel, and the blocks are still handed out in order.
+class CompressedInputStream extends InputStream {
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int NUM_BLOCKS = 4;
+    // A BGZF member holds at most 64KB
+    private static final int MAX_MEMBER = 64 * 1024;
+    private static final int BGZF_HEADER = 18;
+    private static final byte[] LZ4_MAGIC = {'L', 'Z', '4', 'B', 'l', 'o', 'c', 'k'};
+    private static final byte[] SNAPPY_MAGIC = {-126, 'S', 'N', 'A', 'P', 'P', 'Y', 0};
+
+    private static class Block {
+        byte[] buf;
+        int len;
+
+        Block(byte[] inBuf, int inLen) {
+            buf = inBuf;
+            len = inLen;
+        }
+    }
+    private static final Block END = new Block(new byte[0], 0);
+
+    private InputStream in;
+    private BlockingQueue<Future<Block>> full;
+    private ExecutorService inflaters = null;
+    private Thread reader;
+    private Block current = null;
+    private int pos = 0;
+    private boolean eof = false;
+    private volatile boolean closed = false;
+
+    public CompressedInputStream(File infile, final Codec codec,
+                                 int numThreads)
+        throws IOException {
+        in = new BufferedInputStream(new FileInputStream(infile), 64 * 1024);
+        final boolean bgzf = (Codec.GZIP == codec) && (1 < numThreads)
+            && isBgzf(infile);
+        full = new ArrayBlockingQueue<Future<Block>>(NUM_BLOCKS
+                                                     * Math.max(1, numThreads));
+        if (bgzf) {
+            inflaters = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "inflater");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        reader = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        if (bgzf)
+                            readMembers();
+                        else
+                            readStream(wrap(in, codec));
+                        put(done(END));
+                    }
+                    catch (InterruptedException e) {
+                        // Closed
+                    }
+                    catch (Exception e) {
+                        // Handed to the loading thread in order
+                        try {
+                            if (!closed)
+                                put(failed(e));
+                        }
+                        catch (InterruptedException ie) {
+                        }
+                    }
+                }
+            }, "decompressor");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public static Codec detect(File infile) throws IOException {
+        byte[] magic = new byte[8];
+        FileInputStream fis = new FileInputStream(infile);
+        try {
+            int n = 0;
+            int r;
+            while ((n < magic.length)
+                   && (0 < (r = fis.read(magic, n, magic.length - n))))
+                n += r;
+            if ((3 <= n) && (0x1f == (magic[0] & 0xFF))
+                && (0x8b == (magic[1] & 0xFF)) && (8 == magic[2]))
+                return Codec.GZIP;
+            if ((8 == n) && Arrays.equals(LZ4_MAGIC, magic))
+                return Codec.LZ4;
+            if ((8 == n) && Arrays.equals(SNAPPY_MAGIC, magic))
+                return Codec.SNAPPY;
+            return Codec.NONE;
+        }
+        finally {
+            fis.close();
+        }
+    }
+
+    public static boolean isCompressed(File infile) throws IOException {
+        return Codec.NONE != detect(infile);
+    }
+
+    // BGZF members are gzip members with a "BC" extra field holding
+    // the member's size
+    private static boolean isBgzf(File infile) throws IOException {
+        byte[] header = new byte[BGZF_HEADER];
+        FileInputStream fis = new FileInputStream(infile);
+        try {
+            int n = 0;
+            int r;
+            while ((n < header.length)
+                   && (0 < (r = fis.read(header, n, header.length - n))))
+                n += r;
+            return (BGZF_HEADER == n) && isBgzfHeader(header);
+        }
+        finally {
+            fis.close();
+        }
+    }
+
+    private static boolean isBgzfHeader(byte[] h) {
+        return (0x1f == (h[0] & 0xFF)) && (0x8b == (h[1] & 0xFF))
+            && (8 == h[2]) && (0 != (h[3] & 4))
+            && ('B' == h[12]) && ('C' == h[13]) && (2 == h[14]) && (0 == h[15]);
+    }
+
+    private static InputStream wrap(InputStream is, Codec codec)
+        throws IOException {
+        switch (codec) {
+        case GZIP:
+            return new GZIPInputStream(is, 64 * 1024);
+        case LZ4:
+            return new LZ4BlockInputStream(is);
+        case SNAPPY:
+            return new SnappyInputStream(is);
+        default:
+            return is;
+        }
+    }
+
+    // Decompresses on this thread, one block at a time
+    private void readStream(InputStream is)
+        throws IOException, InterruptedException {
+        try {
+            while (!closed) {
+                byte[] buf = new byte[BLOCK_SIZE];
+                int len = 0;
+                int n;
+                while ((len < BLOCK_SIZE)
+                       && (0 < (n = is.read(buf, len, BLOCK_SIZE - len))))
+                    len += n;
+                if (0 == len)
+                    break;
+                put(done(new Block(buf, len)));
+            }
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    // Reads whole members, which end with their uncompressed size, into
+    // groups of up to BLOCK_SIZE uncompressed bytes for the inflaters
+    private void readMembers() throws IOException, InterruptedException {
+        ByteArrayOutputStream group = new ByteArrayOutputStream(BLOCK_SIZE);
+        long size = 0;
+        byte[] member = new byte[MAX_MEMBER + 1];
+        while (!closed) {
+            int n = readFully(member, 0, BGZF_HEADER);
+            if (0 == n)
+                break;
+            if ((BGZF_HEADER != n) || !isBgzfHeader(member))
+                throw new IOException("Not a BGZF member at "
+                                      + "the end of a BGZF file");
+            int bsize = ((member[16] & 0xFF) | ((member[17] & 0xFF) << 8)) + 1;
+            if (bsize < BGZF_HEADER + 8)
+                throw new IOException("Bad BGZF member size " + bsize);
+            if (bsize - BGZF_HEADER != readFully(member, BGZF_HEADER,
+                                                 bsize - BGZF_HEADER))
+                throw new EOFException("Truncated BGZF member");
+            long isize = (member[bsize - 4] & 0xFFL)
+                | ((member[bsize - 3] & 0xFFL) << 8)
+                | ((member[bsize - 2] & 0xFFL) << 16)
+                | ((member[bsize - 1] & 0xFFL) << 24);
+            if (isize > MAX_MEMBER)
+                throw new IOException("Bad BGZF member length " + isize);
+            if (size + isize > BLOCK_SIZE) {
+                put(inflate(group.toByteArray(), (int)size));
+                group.reset();
+                size = 0;
+            }
+            group.write(member, 0, bsize);
+            size += isize;
+        }
+        if (0 < group.size())
+            put(inflate(group.toByteArray(), (int)size));
+        in.close();
+    }
+
+    private int readFully(byte[] b, int off, int len) throws IOException {
+        int n = 0;
+        int r;
+        while ((n < len) && (0 < (r = in.read(b, off + n, len - n))))
+            n += r;
+        return n;
+    }
+
+    private Future<Block> inflate(final byte[] members, final int size) {
+        return inflaters.submit(new Callable<Block>() {
+                public Block call() throws IOException {
+                    byte[] buf = new byte[size];
+                    GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(members),
+                                                             64 * 1024);
+                    try {
+                        int len = 0;
+                        int n;
+                        while ((len < size)
+                               && (0 < (n = gz.read(buf, len, size - len))))
+                            len += n;
+                        // Reading to the end checks the last CRC
+                        if ((len != size) || (-1 != gz.read()))
+                            throw new IOException("BGZF members do not match their lengths");
+                    }
+                    finally {
+                        gz.close();
+                    }
+                    return new Block(buf, size);
+                }
+            });
+    }
+
+    private static Future<Block> done(Block block) {
+        FutureTask<Block> f = new FutureTask<Block>(new Runnable() {
+                public void run() {
+                }
+            }, block);
+        f.run();
+        return f;
+    }
+
+    private static Future<Block> failed(final Exception e) {
+        FutureTask<Block> f = new FutureTask<Block>(new Callable<Block>() {
+                public Block call() throws Exception {
+                    throw e;
+                }
+            });
+        f.run();
+        return f;
+    }
+
+    private void put(Future<Block> f) throws InterruptedException {
+        full.put(f);
+    }
+
+    // False at the end of the input
+    private boolean next() throws IOException {
+        if (eof)
+            return false;
+        try {
+            current = full.take().get();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted reading input");
+        }
+        catch (ExecutionException e) {
+            eof = true;
+            Throwable t = e.getCause();
+            if (t instanceof IOException)
+                throw (IOException)t;
+            throw new IOException(t);
+        }
+        pos = 0;
+        if (END == current) {
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    public int read() throws IOException {
+        while ((null == current) || (pos == current.len))
+            if (!next())
+                return -1;
+        return current.buf[pos++] & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (0 == len)
+            return 0;
+        while ((null == current) || (pos == current.len))
+            if (!next())
+                return -1;
+        int n = Math.min(len, current.len - pos);
+        System.arraycopy(current.buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        reader.interrupt();
+        if (null != inflaters)
+            inflaters.shutdownNow();
+        try {
+            reader.join();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted closing input");
+        }
+        in.close();
+    }
+}
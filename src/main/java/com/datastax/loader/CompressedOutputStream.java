@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+// Compresses output on its own thread.  Bytes written are collected into
+// blocks, and full blocks are handed to a compressor thread that writes
+// them through the codec to the underlying stream, so the thread
+// formatting rows only ever copies bytes.  Used blocks are recycled.
+class CompressedOutputStream extends OutputStream {
+    public enum Codec {
+        NONE(""), GZIP(".gz"), LZ4(".lz4"), SNAPPY(".snappy");
+
+        private String suffix;
+
+        Codec(String inSuffix) {
+            suffix = inSuffix;
+        }
+
+        public String getSuffix() {
+            return suffix;
+        }
+    }
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int NUM_BLOCKS = 4;
+
+    private static class Block {
+        byte[] buf = new byte[BLOCK_SIZE];
+        int len = 0;
+    }
+    private static final Block END = new Block();
+
+    private OutputStream out;
+    private BlockingQueue<Block> full = new ArrayBlockingQueue<Block>(NUM_BLOCKS);
+    private BlockingQueue<Block> free = new ArrayBlockingQueue<Block>(NUM_BLOCKS + 1);
+    private Block current = new Block();
+    private Thread compressor;
+    private volatile IOException error = null;
+    private boolean closed = false;
+
+    public CompressedOutputStream(OutputStream inOut, Codec codec)
+        throws IOException {
+        out = wrap(inOut, codec);
+        for (int i = 0; i < NUM_BLOCKS; i++)
+            free.add(new Block());
+        compressor = new Thread(new Runnable() {
+                public void run() {
+                    compress();
+                }
+            }, "compressor");
+        compressor.setDaemon(true);
+        compressor.start();
+    }
+
+    public static Codec getCodec(String codec) {
+        for (Codec c : Codec.values())
+            if (c.name().equalsIgnoreCase(codec))
+                return c;
+        return null;
+    }
+
+    private static OutputStream wrap(OutputStream os, Codec codec)
+        throws IOException {
+        switch (codec) {
+        case GZIP:
+            return new GZIPOutputStream(os, 64 * 1024);
+        case LZ4:
+            return new LZ4BlockOutputStream(os);
+        case SNAPPY:
+            return new SnappyOutputStream(os);
+        default:
+            return new BufferedOutputStream(os);
+        }
+    }
+
+    private void compress() {
+        try {
+            try {
+                while (true) {
+                    Block block = full.take();
+                    if (END == block)
+                        break;
+                    if (null == error) {
+                        try {
+                            out.write(block.buf, 0, block.len);
+                        }
+                        catch (IOException e) {
+                            // Keep taking blocks so the writer never blocks
+                            error = e;
+                        }
+                        catch (RuntimeException e) {
+                            error = new IOException(e);
+                        }
+                    }
+                    block.len = 0;
+                    free.put(block);
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            if (null == error)
+                error = e;
+        }
+        catch (InterruptedException e) {
+            error = new InterruptedIOException("Compressor interrupted");
+        }
+    }
+
+    private void handOff() throws IOException {
+        if (null != error)
+            throw error;
+        if (0 == current.len)
+            return;
+        try {
+            full.put(current);
+            current = free.take();
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted writing output");
+        }
+    }
+
+    public void write(int b) throws IOException {
+        if (BLOCK_SIZE == current.len)
+            handOff();
+        current.buf[current.len++] = (byte)b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (0 < len) {
+            if (BLOCK_SIZE == current.len)
+                handOff();
+            int n = Math.min(len, BLOCK_SIZE - current.len);
+            System.arraycopy(b, off, current.buf, current.len, n);
+            current.len += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Hands off what we have; it is not written until the compressor
+    // gets to it
+    public void flush() throws IOException {
+        handOff();
+    }
+
+    // The compressor is always stopped, and the file closed, even if
+    // handing off the last block fails
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            handOff();
+        }
+        finally {
+            try {
+                full.put(END);
+                compressor.join();
+            }
+            catch (InterruptedException e) {
+                compressor.interrupt();
+                throw new InterruptedIOException("Interrupted closing output");
+            }
+        }
+        if (null != error)
+            throw error;
+    }
+}
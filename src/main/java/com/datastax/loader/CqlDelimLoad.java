@@ -16,19 +16,25 @@
 package com.datastax.loader;
 
 import com.datastax.loader.parser.BooleanParser;
+import com.datastax.loader.parser.TimestampParser;
 import com.datastax.loader.futures.FutureManager;
+import com.datastax.loader.futures.AdaptiveConcurrencyLimiter;
 import com.datastax.loader.futures.PrintingFutureSet;
 
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Deque;
 import java.util.ArrayDeque;
 import java.util.Comparator;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -122,6 +128,7 @@ public class CqlDelimLoad {
     private String filename = null;
     public static String STDIN = "stdin";
     public static String STDERR = "stderr";
+    private static final long WATCH_POLL_MS = 500;
     private String successDir = null;
     private String failureDir = null;
 
@@ -137,6 +144,31 @@ public class CqlDelimLoad {
     private int numThreads = Runtime.getRuntime().availableProcessors();
     private int batchSize = 1;
     private boolean nullsUnset = false;
+    private long splitSize = 0;
+    private int parseThreads = 0;
+    private TokenAwareBatcher.Mode batchMode = TokenAwareBatcher.Mode.ALL;
+    private long batchFlushMs = 1000;
+    private boolean mmap = false;
+    private boolean fastTokenizer = false;
+    private boolean fastJson = false;
+    private boolean typedBind = false;
+    private int valueCache = 0;
+    private long valueCacheBytes = 4 * 1024 * 1024;
+    private boolean fastTimestamp = false;
+    private TimestampParser timestampParser = null;
+    private boolean adaptiveFutures = false;
+    private AdaptiveConcurrencyLimiter concurrencyLimiter = null;
+    private String fakeSchema = null;
+    private double fakeLatencyMs = 0;
+    private double fakeErrorRate = 0;
+    private FakeCassandra fakeCassandra = null;
+    private String checkpointFile = null;
+    private CheckpointJournal journal = null;
+    private String lineIndexDir = null;
+    private int decompressThreads = 1;
+    private boolean watch = false;
+    private boolean largestFirst = false;
+    private CqlDelimParser parserTemplate = null;
 
     private String usage() {
         StringBuilder usage = new StringBuilder("version: ").append(version).append("\n");
@@ -166,7 +198,10 @@ public class CqlDelimLoad {
         usage.append("  -ssl-keystore-pw <pwd>             Password for SSL keystore [none]\n");
         usage.append("  -consistencyLevel <CL>             Consistency level [LOCAL_ONE]\n");
         usage.append("  -numFutures <numFutures>           Number of CQL futures to keep in flight [1000]\n");
+        usage.append("  -adaptiveFutures [false|true]      Adapt the number of futures in flight to the cluster [false]\n");
         usage.append("  -batchSize <batchSize>             Number of INSERTs to batch together [1]\n");
+        usage.append("  -batchMode [all|partition|replica] How to group INSERTs into batches [all]\n");
+        usage.append("  -batchFlushMs <milliseconds>       Maximum time a partition/replica batch stays open [1000]\n");
         usage.append("  -decimalDelim <decimalDelim>       Decimal delimiter [.] Other option is ','\n");
         usage.append("  -boolStyle <boolStyleString>       Style for booleans [TRUE_FALSE]\n");
         usage.append("  -numThreads <numThreads>           Number of concurrent threads (files) to load [num cores]\n");
@@ -183,11 +218,29 @@ public class CqlDelimLoad {
         usage.append("  -table <tableName>                 Table name (when using JSON)\n");
         usage.append("  -keyspace <keyspaceName>           Keyspace name (when using JSON)\n");
         usage.append("  -ttl <TTL>                         TTL for all rows in this invocation [unset]\n");
+        usage.append("  -fastTokenizer [false|true]        Split delimited lines without univocity [false]\n");
+        usage.append("  -fastJson [false|true]             Parse jsonline input without json-simple [false]\n");
+        usage.append("  -typedBind [false|true]            Parse delimited fields straight into the INSERT without boxing [false]\n");
+        usage.append("  -valueCache <numValues>            With -typedBind, cache this many encoded values per column (0 means no cache) [0]\n");
+        usage.append("  -valueCacheBytes <bytes>           Most bytes cached per column with -valueCache [4194304]\n");
+        usage.append("  -fastTimestamp [false|true]        Parse TIMESTAMPs with java.time and an ISO-8601/epoch fast path [false]\n");
+        usage.append("  -mmap [false|true]                 Read uncompressed files with memory-mapped I/O [false]\n");
+        usage.append("  -parseThreads <numThreads>         Parser threads per file (0 means parse on the loading thread) [0]\n");
+        usage.append("  -splitSize <bytes>                 Split files larger than this across threads (0 means no splitting) [0]\n");
+        usage.append("  -checkpoint <filename>             Journal of how far each file has loaded, to resume an interrupted load [none]\n");
+        usage.append("  -lineIndexDir <dir>                Directory for line indexes that let -skipRows and -checkpoint seek [none]\n");
+        usage.append("  -decompressThreads <numThreads>    Threads inflating each bgzip (BGZF) input file [1]\n");
+        usage.append("  -largestFirst [false|true]         Start the largest files (and chunks) first, instead of in name order [false]\n");
+        usage.append("  -watch [false|true]                Keep loading new files as they appear in the -f directory [false]\n");
+        usage.append("  -fakeCassandra <tableSchema>       Load into an in-process fake cluster with this table and report rows/s, CPU and allocation [none]\n");
+        usage.append("  -fakeLatencyMs <milliseconds>      Fake cluster response latency [0]\n");
+        usage.append("  -fakeErrorRate <fraction>          Fraction of fake cluster writes that time out [0]\n");
 
         usage.append("\n\nExamples:\n");
         usage.append("cassandra-loader -f /path/to/file.csv -host localhost -schema \"test.test3(a, b, c)\"\n");
         usage.append("cassandra-loader -f /path/to/directory -host 1.2.3.4 -schema \"test.test3(a, b, c)\" -delim \"\\t\" -numThreads 10\n");
         usage.append("cassandra-loader -f stdin -host localhost -schema \"test.test3(a, b, c)\" -user myuser -pw mypassword\n");
+        usage.append("cassandra-loader -f /path/to/file.csv -fakeCassandra \"test.test3(a int, b text, c double, PRIMARY KEY ((a), b))\" -schema \"test.test3(a, b, c)\" -rate 1000000\n");
         return usage.toString();
     }
     
@@ -228,6 +281,10 @@ public class CqlDelimLoad {
             System.err.println("Batch size must be positive (" + batchSize + ")");
             return false;
         }
+        if (0 >= batchFlushMs) {
+            System.err.println("batchFlushMs must be positive");
+            return false;
+        }
         if (0 >= queryTimeout) {
             System.err.println("Query timeout must be positive");
             return false;
@@ -268,7 +325,7 @@ public class CqlDelimLoad {
             }
             if (infile.isDirectory()) {
                 File[] infileList = infile.listFiles();
-                if (infileList.length < 1) {
+                if ((infileList.length < 1) && !watch) {
                     System.err.println("The directory supplied is empty");
                     return false;
                 }
@@ -344,6 +401,84 @@ public class CqlDelimLoad {
             System.err.println("charsPerColumn must be positive");
             return false;
         }
+        if (0 > parseThreads) {
+            System.err.println("parseThreads must be non-negative");
+            return false;
+        }
+        if (0 > splitSize) {
+            System.err.println("splitSize must be non-negative");
+            return false;
+        }
+        if ((0 > valueCache) || (0 >= valueCacheBytes)) {
+            System.err.println("valueCache must be non-negative and valueCacheBytes must be positive");
+            return false;
+        }
+        if ((0 < valueCache) && !typedBind) {
+            System.err.println("valueCache requires typedBind");
+            return false;
+        }
+        if (null != checkpointFile) {
+            if (STDIN.equalsIgnoreCase(filename)) {
+                System.err.println("Cannot specify -checkpoint with stdin");
+                return false;
+            }
+            if (format.equalsIgnoreCase("jsonarray")) {
+                System.err.println("Cannot specify -checkpoint with jsonarray");
+                return false;
+            }
+            if ((1 < batchSize) && (TokenAwareBatcher.Mode.ALL != batchMode)) {
+                System.err.println("Cannot specify -checkpoint with batchMode partition or replica");
+                return false;
+            }
+            if (new File(checkpointFile).isDirectory()) {
+                System.err.println("-checkpoint must be a file");
+                return false;
+            }
+        }
+        if (watch) {
+            if (STDIN.equalsIgnoreCase(filename) || !new File(filename).isDirectory()) {
+                System.err.println("-watch needs -f to be a directory");
+                return false;
+            }
+        }
+        if (1 > decompressThreads) {
+            System.err.println("decompressThreads must be positive");
+            return false;
+        }
+        if (null != lineIndexDir) {
+            if (STDIN.equalsIgnoreCase(filename)) {
+                System.err.println("Cannot specify -lineIndexDir with stdin");
+                return false;
+            }
+            File ldir = new File(lineIndexDir);
+            if (!ldir.isDirectory()) {
+                System.err.println("-lineIndexDir must be a directory");
+                return false;
+            }
+            // Otherwise the indexes would be loaded as input
+            if (ldir.getAbsoluteFile().equals(new File(filename).getAbsoluteFile())) {
+                System.err.println("-lineIndexDir must not be the input directory");
+                return false;
+            }
+        }
+        if (null != fakeSchema) {
+            if (null != host) {
+                System.err.println("Cannot specify -host with -fakeCassandra");
+                return false;
+            }
+            if (null != truststorePath) {
+                System.err.println("Cannot use SSL with -fakeCassandra");
+                return false;
+            }
+        }
+        if (0 > fakeLatencyMs) {
+            System.err.println("fakeLatencyMs must be non-negative");
+            return false;
+        }
+        if ((0 > fakeErrorRate) || (1 < fakeErrorRate)) {
+            System.err.println("fakeErrorRate must be between 0 and 1");
+            return false;
+        }
 
         return true;
     }
@@ -390,8 +525,9 @@ public class CqlDelimLoad {
             if (!processConfigFile(tkey, amap))
                 return false;
 
+        fakeSchema = amap.remove("-fakeCassandra");
         host = amap.remove("-host");
-        if (null == host) { // host is required
+        if ((null == host) && (null == fakeSchema)) { // host is required
             System.err.println("Must provide a host");
             return false;
         }
@@ -417,11 +553,19 @@ public class CqlDelimLoad {
         if (null != (tkey = amap.remove("-consistencyLevel"))) consistencyLevel = ConsistencyLevel.valueOf(tkey);
         if (null != (tkey = amap.remove("-numFutures")))    inNumFutures = Integer.parseInt(tkey);
         if (null != (tkey = amap.remove("-batchSize")))     batchSize = Integer.parseInt(tkey);
+        if (null != (tkey = amap.remove("-batchMode"))) {
+            batchMode = TokenAwareBatcher.getMode(tkey);
+            if (null == batchMode) {
+                System.err.println("Bad batch mode.  Options are: all, partition, replica");
+                return false;
+            }
+        }
+        if (null != (tkey = amap.remove("-batchFlushMs")))  batchFlushMs = Long.parseLong(tkey);
         if (null != (tkey = amap.remove("-queryTimeout")))  queryTimeout = Integer.parseInt(tkey);
         if (null != (tkey = amap.remove("-maxInsertErrors"))) maxInsertErrors = Long.parseLong(tkey);
         if (null != (tkey = amap.remove("-numRetries")))    numRetries = Integer.parseInt(tkey);
         if (null != (tkey = amap.remove("-maxErrors")))     maxErrors = Long.parseLong(tkey);
-        if (null != (tkey = amap.remove("-skipRows")))      skipRows = Integer.parseInt(tkey);
+        if (null != (tkey = amap.remove("-skipRows")))      skipRows = Long.parseLong(tkey);
         if (null != (tkey = amap.remove("-skipCols")))      skipCols = tkey;
         if (null != (tkey = amap.remove("-maxRows")))       maxRows = Integer.parseInt(tkey);
         if (null != (tkey = amap.remove("-badDir")))        badDir = tkey;
@@ -450,6 +594,23 @@ public class CqlDelimLoad {
         }
         if (null != (tkey = amap.remove("-nullsUnset")))    nullsUnset = Boolean.parseBoolean(tkey);
         if (null != (tkey = amap.remove("-charsPerColumn"))) charsPerColumn = Integer.parseInt(tkey);
+        if (null != (tkey = amap.remove("-fastTokenizer"))) fastTokenizer = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-fastJson")))      fastJson = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-typedBind")))     typedBind = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-valueCache")))    valueCache = Integer.parseInt(tkey);
+        if (null != (tkey = amap.remove("-valueCacheBytes"))) valueCacheBytes = Long.parseLong(tkey);
+        if (null != (tkey = amap.remove("-fastTimestamp"))) fastTimestamp = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-adaptiveFutures"))) adaptiveFutures = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-mmap")))          mmap = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-parseThreads")))  parseThreads = Integer.parseInt(tkey);
+        if (null != (tkey = amap.remove("-splitSize")))     splitSize = Long.parseLong(tkey);
+        if (null != (tkey = amap.remove("-checkpoint")))    checkpointFile = tkey;
+        if (null != (tkey = amap.remove("-lineIndexDir")))  lineIndexDir = tkey;
+        if (null != (tkey = amap.remove("-decompressThreads"))) decompressThreads = Integer.parseInt(tkey);
+        if (null != (tkey = amap.remove("-largestFirst")))  largestFirst = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-watch")))         watch = Boolean.parseBoolean(tkey);
+        if (null != (tkey = amap.remove("-fakeLatencyMs"))) fakeLatencyMs = Double.parseDouble(tkey);
+        if (null != (tkey = amap.remove("-fakeErrorRate"))) fakeErrorRate = Double.parseDouble(tkey);
 
         if (-1 == maxRows)
             maxRows = Long.MAX_VALUE;
@@ -519,7 +680,21 @@ public class CqlDelimLoad {
 
     private boolean setup() 
         throws IOException, KeyStoreException, NoSuchAlgorithmException, KeyManagementException,
-               CertificateException, UnrecoverableKeyException {
+               CertificateException, UnrecoverableKeyException, ParseException {
+        if (null != fakeSchema) {
+            try {
+                fakeCassandra = new FakeCassandra(fakeSchema, fakeLatencyMs,
+                                                  fakeErrorRate);
+            }
+            catch (ParseException e) {
+                System.err.println("Bad -fakeCassandra table: " + e.getMessage());
+                return false;
+            }
+            fakeCassandra.start();
+            host = fakeCassandra.getHost();
+            port = fakeCassandra.getPort();
+        }
+
         // Connect to Cassandra
         Session tsession = null;
         try {
@@ -574,13 +749,49 @@ public class CqlDelimLoad {
         }
         Metrics metrics = cluster.getMetrics();
         com.codahale.metrics.Timer timer = metrics.getRequestsTimer();
-        rateLimiter = new RateLimiter(rate, progressRate, timer, rateStream);
+        if (adaptiveFutures) {
+            // One limit shared by all threads, between one future per
+            // thread and the -numFutures total, starting at a quarter
+            int maxFutures = numFutures * numThreads;
+            concurrencyLimiter = new AdaptiveConcurrencyLimiter(maxFutures / 4,
+                                                                numThreads,
+                                                                maxFutures);
+        }
+        if (null != checkpointFile)
+            journal = new CheckpointJournal(new File(checkpointFile));
+        if (fastTimestamp) {
+            // Thread-safe, so all threads share one (and its cache)
+            timestampParser = new TimestampParser(dateFormatString);
+        }
+        rateLimiter = new RateLimiter(rate, progressRate, timer, rateStream,
+                                      concurrencyLimiter);
         //rateLimiter = new Latency999RateLimiter(rate, progressRate, 3000, 200, 10, 0.5, 0.1, cluster, false);
         session = new RateLimitedSession(tsession, rateLimiter);
 
+        // Look up the schema and prepare the INSERT once, rather than for
+        // every file
+        parserTemplate = createParserTemplate();
+        session.prepare(parserTemplate.generateInsert());
+
         return true;
     }
 
+    private CqlDelimParser createParserTemplate() throws ParseException {
+        if (format.equalsIgnoreCase("delim"))
+            return new CqlDelimParser(cqlSchema, delimiter, charsPerColumn, 
+                                      nullString, commentString,
+                                      dateFormatString, localDateFormatString,
+                                      boolStyle, locale,
+                                      skipCols, session, true, ttl,
+                                      timestampParser);
+        return new CqlDelimParser(keyspace, table, delimiter, charsPerColumn,
+                                  nullString, commentString,
+                                  dateFormatString, localDateFormatString,
+                                  boolStyle, locale, 
+                                  skipCols, session, true, ttl,
+                                  timestampParser);
+    }
+
     private void cleanup() {
         rateLimiter.report(null, null);
         if (null != rateStream)
@@ -589,6 +800,8 @@ public class CqlDelimLoad {
             session.close();
         if (null != cluster)
             cluster.close();
+        if (null != fakeCassandra)
+            fakeCassandra.close();
     }
     
     public boolean run(String[] args) 
@@ -604,7 +817,23 @@ public class CqlDelimLoad {
         // Setup
         if (false == setup())
             return false;
+
+        // With a fake cluster, all the time and CPU is the loader's
+        ResourceMeter meter = null;
+        if (null != fakeCassandra) {
+            meter = new ResourceMeter(FakeCassandra.THREAD_PREFIX);
+            meter.start();
+        }
         
+        // Keep loading new files until the directory goes away
+        if (watch) {
+            watchDirectory(new File(filename));
+            if (null != journal)
+                journal.close(false);
+            cleanup();
+            return true;
+        }
+
         // open file
         Deque<File> fileList = new ArrayDeque<File>();
         File infile = null;
@@ -633,60 +862,70 @@ public class CqlDelimLoad {
             }
         }
 
+        List<File> toSplit = new ArrayList<File>();
+        if (onefile)
+            toSplit.add(infile);
+        else
+            toSplit.addAll(fileList);
+        Map<File, List<FileChunk>> chunkMap = splitFiles(toSplit);
+
         // Launch Threads
         ExecutorService executor;
         long total = 0;
-        if (onefile) {
+        boolean allLoaded = true;
+        if (onefile && chunkMap.isEmpty()) {
             // One file/stdin to process
             executor = Executors.newSingleThreadExecutor();
-            Callable<Long> worker = new CqlDelimLoadTask(cqlSchema, delimiter, 
-                                                         charsPerColumn, nullString,
-                                                         commentString,
-                                                         dateFormatString, 
-                                                         localDateFormatString, 
-                                                         boolStyle, locale, 
-                                                         maxErrors, skipRows,
-                                                         skipCols,
-                                                         maxRows, badDir, infile, 
-                                                         session, consistencyLevel,
-                                                         numFutures, batchSize,
-                                                         numRetries, queryTimeout,
-                                                         maxInsertErrors, 
-                                                         successDir, failureDir,
-                                                         nullsUnset, format,
-                                                         keyspace, table, ttl);
+            Callable<Long> worker = createTask(infile, null);
             Future<Long> res = executor.submit(worker);
             total = res.get();
+            allLoaded = (0 <= total);
             executor.shutdown();
         }
         else {
+            if (onefile)
+                fileList.push(infile);
             executor = Executors.newFixedThreadPool(numThreads);
             Set<Future<Long>> results = new HashSet<Future<Long>>();
-            while (!fileList.isEmpty()) {
-                File tFile = fileList.pop();
-                Callable<Long> worker = new CqlDelimLoadTask(cqlSchema, delimiter,
-                                                             charsPerColumn, nullString,
-                                                             commentString,
-                                                             dateFormatString, 
-                                                             localDateFormatString, 
-                                                             boolStyle, locale, 
-                                                             maxErrors, skipRows,
-                                                             skipCols,
-                                                             maxRows, badDir, tFile, 
-                                                             session,
-                                                             consistencyLevel,
-                                                             numFutures, batchSize,
-                                                             numRetries, 
-                                                             queryTimeout,
-                                                             maxInsertErrors, 
-                                                             successDir, failureDir,
-                                                             nullsUnset, format,
-                                                             keyspace, table, ttl);
-                results.add(executor.submit(worker));
+            Map<File, List<Future<Long>>> chunkResults 
+                = new HashMap<File, List<Future<Long>>>();
+            Map<File, List<Future<Long>>> submitted 
+                = submitAll(fileList, chunkMap, executor);
+            for (Map.Entry<File, List<Future<Long>>> e : submitted.entrySet()) {
+                if (chunkMap.containsKey(e.getKey()))
+                    chunkResults.put(e.getKey(), e.getValue());
+                else
+                    results.addAll(e.getValue());
             }
             executor.shutdown();
-            for (Future<Long> res : results)
-                total += res.get();
+            for (Future<Long> res : results) {
+                long r = res.get();
+                if (0 > r)
+                    allLoaded = false;
+                total += r;
+            }
+            for (Map.Entry<File, List<Future<Long>>> e : chunkResults.entrySet()) {
+                boolean success = true;
+                for (Future<Long> res : e.getValue()) {
+                    long r = res.get();
+                    if (0 > r)
+                        success = false;
+                    else
+                        total += r;
+                }
+                CqlDelimLoadTask.moveFile(e.getKey(), 
+                                          success ? successDir : failureDir);
+                if (!success)
+                    allLoaded = false;
+            }
+        }
+        if (null != journal)
+            journal.close(allLoaded);
+
+        if (null != meter) {
+            meter.stop();
+            System.err.println("*** Benchmark: " + meter.report(fakeCassandra.getRows()));
+            System.err.println("*** Fake Cassandra: " + fakeCassandra.report());
         }
 
         // Cleanup
@@ -696,6 +935,200 @@ public class CqlDelimLoad {
         return true;
     }
 
+    // Split large files into chunks up front, so that the line
+    // counting for all of them can run in parallel
+    private Map<File, List<FileChunk>> splitFiles(Collection<File> files)
+        throws IOException, InterruptedException, ExecutionException {
+        Map<File, List<FileChunk>> chunkMap = new HashMap<File, List<FileChunk>>();
+        if (0 < splitSize) {
+            ExecutorService splitter = Executors.newFixedThreadPool(numThreads);
+            for (File tFile : files) {
+                if (!isSplittable(tFile))
+                    continue;
+                List<FileChunk> chunks = FileChunk.split(tFile, splitSize,
+                                                         splitDelim(),
+                                                         splitQuote(), '\\',
+                                                         splitter);
+                if (1 < chunks.size())
+                    chunkMap.put(tFile, chunks);
+            }
+            splitter.shutdown();
+        }
+        return chunkMap;
+    }
+
+    // A file, or a chunk of one, to load
+    private static class Work {
+        File file;
+        FileChunk chunk;
+        long size;
+
+        Work(File inFile, FileChunk inChunk) {
+            file = inFile;
+            chunk = inChunk;
+            size = (null == chunk) ? file.length() : chunk.length();
+        }
+    }
+
+    // Submits each file, or each of its chunks, to the executor, in the
+    // order given or, with -largestFirst, largest first (by bytes on disk),
+    // so that a big file or chunk is not the last thing left running while
+    // the other threads sit idle.  The chunks of split files are about
+    // -splitSize each, so idle threads pick up the remaining chunks.
+    // Returns the futures for each file.
+    private Map<File, List<Future<Long>>> submitAll(Collection<File> files,
+                                                    Map<File, List<FileChunk>> chunkMap,
+                                                    ExecutorService executor) {
+        List<Work> work = new ArrayList<Work>();
+        Map<File, List<Future<Long>>> submitted 
+            = new LinkedHashMap<File, List<Future<Long>>>();
+        for (File tFile : files) {
+            List<FileChunk> chunks = chunkMap.get(tFile);
+            if (null == chunks) {
+                work.add(new Work(tFile, null));
+            }
+            else {
+                for (FileChunk chunk : chunks)
+                    work.add(new Work(tFile, chunk));
+            }
+            submitted.put(tFile, new ArrayList<Future<Long>>());
+        }
+        if (largestFirst) {
+            // Stable, so equal sizes keep their order
+            Collections.sort(work, new Comparator<Work>() {
+                    public int compare(Work w1, Work w2) {
+                        return Long.compare(w2.size, w1.size);
+                    }
+                });
+        }
+        for (Work w : work)
+            submitted.get(w.file).add(executor.submit(createTask(w.file, w.chunk)));
+        return submitted;
+    }
+
+    // Loads files as they show up in dir, with the same session, prepared
+    // statements and thread pool, until the directory goes away.  Files
+    // are moved to -successDir or -failureDir as usual.
+    private void watchDirectory(File dir)
+        throws IOException, InterruptedException, ExecutionException {
+        DirectoryWatcher watcher = new DirectoryWatcher(dir);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        Map<File, List<Future<Long>>> running 
+            = new HashMap<File, List<Future<Long>>>();
+        Map<File, List<FileChunk>> runningChunks 
+            = new HashMap<File, List<FileChunk>>();
+        System.err.println("*** Watching " + dir + " for new files");
+        try {
+            while (watcher.isValid() || !running.isEmpty()) {
+                if (watcher.isValid()) {
+                    List<File> files = watcher.next(WATCH_POLL_MS);
+                    Map<File, List<FileChunk>> chunkMap = splitFiles(files);
+                    running.putAll(submitAll(files, chunkMap, executor));
+                    runningChunks.putAll(chunkMap);
+                }
+                else {
+                    Thread.sleep(WATCH_POLL_MS);
+                }
+                finishLoaded(running, runningChunks);
+            }
+        }
+        finally {
+            watcher.close();
+            executor.shutdown();
+        }
+        System.err.println("*** " + dir + " is gone, stopping");
+    }
+
+    // Moves split files once all their chunks are done, and forgets the
+    // checkpoints of files that were moved away, and the line indexes of
+    // all finished files.  A file whose task failed is left where it is.
+    private void finishLoaded(Map<File, List<Future<Long>>> running,
+                              Map<File, List<FileChunk>> runningChunks)
+        throws IOException, InterruptedException {
+        Iterator<Map.Entry<File, List<Future<Long>>>> it 
+            = running.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<File, List<Future<Long>>> e = it.next();
+            boolean allDone = true;
+            for (Future<Long> res : e.getValue())
+                if (!res.isDone())
+                    allDone = false;
+            if (!allDone)
+                continue;
+            it.remove();
+            File tFile = e.getKey();
+            LineIndex.forget(tFile);
+            boolean success = true;
+            try {
+                for (Future<Long> res : e.getValue())
+                    if (0 > res.get())
+                        success = false;
+            }
+            catch (ExecutionException ee) {
+                System.err.println("*** Error loading " + tFile + ": " 
+                                   + ee.getCause());
+                runningChunks.remove(tFile);
+                continue;
+            }
+            List<FileChunk> chunks = runningChunks.remove(tFile);
+            if (null != chunks)
+                CqlDelimLoadTask.moveFile(tFile, 
+                                          success ? successDir : failureDir);
+            if ((null != journal) && !tFile.exists()) {
+                if (null == chunks) {
+                    journal.forget(CheckpointJournal.key(tFile, null));
+                }
+                else {
+                    for (FileChunk chunk : chunks)
+                        journal.forget(CheckpointJournal.key(tFile, chunk));
+                }
+            }
+        }
+    }
+
+    private CqlDelimLoadTask createTask(File tFile, FileChunk chunk) {
+        return new CqlDelimLoadTask(cqlSchema, delimiter, charsPerColumn,
+                                    nullString, commentString,
+                                    dateFormatString, localDateFormatString,
+                                    boolStyle, locale, maxErrors, skipRows,
+                                    skipCols, maxRows, badDir, tFile,
+                                    session, consistencyLevel,
+                                    numFutures, batchSize, numRetries,
+                                    queryTimeout, maxInsertErrors,
+                                    successDir, failureDir,
+                                    nullsUnset, format,
+                                    keyspace, table, ttl, chunk,
+                                    parseThreads, batchMode, batchFlushMs,
+                                    mmap, fastTokenizer, fastJson, typedBind,
+                                    valueCache, valueCacheBytes,
+                                    timestampParser,
+                                    concurrencyLimiter, journal,
+                                    (null == lineIndexDir) ? null
+                                    : new File(lineIndexDir),
+                                    decompressThreads, parserTemplate);
+    }
+
+    private boolean isSplittable(File tFile) throws IOException {
+        if (format.equalsIgnoreCase("jsonarray"))
+            return false;
+        if ((null == tFile) || (tFile.length() <= splitSize))
+            return false;
+        return FileChunk.isSplittable(tFile);
+    }
+
+    private char splitDelim() {
+        if (null == delimiter)
+            return ',';
+        return ("\\t".equals(delimiter)) ? '\t' : delimiter.charAt(0);
+    }
+
+    // JSON lines cannot span lines, so there is no need to track quotes
+    private Character splitQuote() {
+        if (format.equalsIgnoreCase("jsonline"))
+            return null;
+        return '\"';
+    }
+
     public static void main(String[] args) 
         throws IOException, ParseException, InterruptedException, ExecutionException, 
                KeyStoreException, NoSuchAlgorithmException, UnrecoverableKeyException, 
@@ -19,15 +19,15 @@ import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.PreparedStatement;
-import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.loader.futures.AdaptiveConcurrencyLimiter;
 import com.datastax.loader.futures.FutureManager;
 import com.datastax.loader.futures.PrintingFutureSet;
 import com.datastax.loader.futures.JsonPrintingFutureSet;
 import com.datastax.loader.parser.BooleanParser;
-import org.json.simple.JSONArray;
+import com.datastax.loader.parser.Parser;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
@@ -43,12 +43,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.ZipException;
 
 class CqlDelimLoadTask implements Callable<Long> {
     private String BADPARSE = ".BADPARSE";
@@ -70,6 +69,22 @@ class CqlDelimLoadTask implements Callable<Long> {
     private String successDir;
     private String failureDir;
     private String readerName;
+    private String outputName;
+    private FileChunk chunk = null;
+    private long lineOffset = 0;
+    private int parseThreads = 0;
+    private List<CqlDelimParser> pipelineParsers;
+    private int numErrors = 0;
+    private TokenAwareBatcher.Mode batchMode = TokenAwareBatcher.Mode.ALL;
+    private long batchFlushMs = 1000;
+    private TokenAwareBatcher batcher = null;
+    private boolean mmap = false;
+    private boolean fastTokenizer = false;
+    private boolean fastJson = false;
+    private boolean typedBind = false;
+    private int valueCache = 0;
+    private long valueCacheBytes = 0;
+    private Parser timestampParser = null;
     private PrintStream badParsePrinter = null;
     private PrintStream badInsertPrinter = null;
     private PrintStream logPrinter = null;
@@ -99,7 +114,18 @@ class CqlDelimLoadTask implements Callable<Long> {
     private String format = "delim";
     private String keyspace = null;
     private String table = null;
-    private JSONArray jsonArray;
+    private JsonArrayReader jsonReader;
+    private AdaptiveConcurrencyLimiter concurrencyLimiter = null;
+    private CheckpointJournal journal = null;
+    private CheckpointFutureManager checkpointFm = null;
+    private String checkpointKey = null;
+    private long resumeLine = -1;
+    private long resumeOffset = -1;
+    private File lineIndexDir = null;
+    private int decompressThreads = 1;
+    private CqlDelimParser parserTemplate = null;
+    private long seekLine = -1;
+    private long seekOffset = -1;
 
     public CqlDelimLoadTask(String inCqlSchema, String inDelimiter, 
                             int inCharsPerColumn,
@@ -115,7 +141,17 @@ class CqlDelimLoadTask implements Callable<Long> {
                             int inQueryTimeout, long inMaxInsertErrors,
                             String inSuccessDir, String inFailureDir,
                             boolean inNullsUnset, String inFormat,
-                            String inKeyspace, String inTable, int inTtl) {
+                            String inKeyspace, String inTable, int inTtl,
+                            FileChunk inChunk, int inParseThreads,
+                            TokenAwareBatcher.Mode inBatchMode,
+                            long inBatchFlushMs, boolean inMmap,
+                            boolean inFastTokenizer, boolean inFastJson,
+                            boolean inTypedBind, int inValueCache,
+                            long inValueCacheBytes, Parser inTimestampParser,
+                            AdaptiveConcurrencyLimiter inConcurrencyLimiter,
+                            CheckpointJournal inJournal,
+                            File inLineIndexDir, int inDecompressThreads,
+                            CqlDelimParser inParserTemplate) {
         super();
         cqlSchema = inCqlSchema;
         delimiter = inDelimiter;
@@ -146,59 +182,127 @@ class CqlDelimLoadTask implements Callable<Long> {
         keyspace = inKeyspace;
         table = inTable;
 	ttl = inTtl;
+        chunk = inChunk;
+        parseThreads = inParseThreads;
+        batchMode = inBatchMode;
+        batchFlushMs = inBatchFlushMs;
+        mmap = inMmap;
+        fastTokenizer = inFastTokenizer;
+        fastJson = inFastJson;
+        typedBind = inTypedBind;
+        valueCache = inValueCache;
+        valueCacheBytes = inValueCacheBytes;
+        timestampParser = inTimestampParser;
+        concurrencyLimiter = inConcurrencyLimiter;
+        journal = inJournal;
+        lineIndexDir = inLineIndexDir;
+        decompressThreads = inDecompressThreads;
+        parserTemplate = inParserTemplate;
     }
 
     public Long call() throws IOException, ParseException, org.json.simple.parser.ParseException {
-        setup();
-        numInserted = execute();
+        if ((null != journal) && journal.isDone(CheckpointJournal.key(infile, chunk))) {
+            System.err.println("*** Skipping " + CheckpointJournal.key(infile, chunk)
+                               + ", already loaded according to the checkpoint");
+            return 0L;
+        }
+        try {
+            setup();
+            numInserted = execute();
+        }
+        finally {
+            closeReader();
+        }
         return numInserted;
     }
 
+    // Stops CompressedInputStream's threads and closes the file, whether
+    // we read it all or stopped early (errors, -maxRows).  This is done
+    // after execute() has stopped the LoadPipeline, which reads on its own
+    // thread.  Stdin is left open.
+    private void closeReader() throws IOException {
+        if ((null == reader) || (null == infile))
+            return;
+        BufferedReader r = reader;
+        reader = null;
+        r.close();
+    }
+
     private void setup() throws IOException, ParseException, org.json.simple.parser.ParseException {
+        if (null != journal) {
+            checkpointKey = CheckpointJournal.key(infile, chunk);
+            long[] resume = journal.getResume(checkpointKey);
+            if (null != resume) {
+                resumeLine = resume[0];
+                resumeOffset = resume[1];
+            }
+        }
+        findSeek();
         if (null == infile) {
             reader = new BufferedReader(new InputStreamReader(System.in));
             readerName = "stdin";
+            outputName = readerName;
+        }
+        else if (null != chunk) {
+            if (useMmap())
+                reader = new MappedLineReader(infile, 
+                                              startOffset(chunk.getStart()),
+                                              chunk.getEnd());
+            else
+                reader = new BufferedReader(new InputStreamReader(chunk.open(startOffset(chunk.getStart()))));
+            readerName = infile.getName();
+            outputName = readerName + "." + chunk.getIndex();
+            lineOffset = chunk.getFirstLine() - 1;
+        }
+        else if (useMmap()) {
+            reader = new MappedLineReader(infile, startOffset(0),
+                                          infile.length());
+            readerName = infile.getName();
+            outputName = readerName;
         }
         else {
             InputStream is =  null;
-            try {
-                is = new GZIPInputStream(new FileInputStream(infile));
+            if (0 <= seekOffset) {
+                FileInputStream fis = new FileInputStream(infile);
+                fis.getChannel().position(seekOffset);
+                is = fis;
             }
-            catch (ZipException e) {
-                is = new FileInputStream(infile);
+            else {
+                CompressedOutputStream.Codec codec
+                    = CompressedInputStream.detect(infile);
+                if (CompressedOutputStream.Codec.NONE == codec)
+                    is = new FileInputStream(infile);
+                else
+                    is = new CompressedInputStream(infile, codec,
+                                                   decompressThreads);
             }
             reader = new BufferedReader(new InputStreamReader(is));
             readerName = infile.getName();
+            outputName = readerName;
         }
 
+        // Seeking skips the lines before seekOffset
+        if (0 <= seekOffset)
+            lineOffset = seekLine;
+
         //setup json reader
         if(format.equalsIgnoreCase("jsonarray")){
-            JSONParser parser = new JSONParser();
-            jsonArray= (JSONArray) parser.parse(reader);
+            jsonReader = new JsonArrayReader(reader);
         }
 
         // Prepare Badfile
         if (null != badDir) {
-            badParsePrinter = new PrintStream(new BufferedOutputStream(new FileOutputStream(badDir + "/" + readerName + BADPARSE)));
-            badInsertPrinter = new PrintStream(new BufferedOutputStream(new FileOutputStream(badDir + "/" + readerName + BADINSERT)));
-            logFname = badDir + "/" + readerName + LOG;
+            badParsePrinter = new PrintStream(new BufferedOutputStream(new FileOutputStream(badDir + "/" + outputName + BADPARSE)));
+            badInsertPrinter = new PrintStream(new BufferedOutputStream(new FileOutputStream(badDir + "/" + outputName + BADINSERT)));
+            logFname = badDir + "/" + outputName + LOG;
             logPrinter = new PrintStream(new BufferedOutputStream(new FileOutputStream(logFname)));
         }
 
-        if (format.equalsIgnoreCase("delim")) {
-            cdp = new CqlDelimParser(cqlSchema, delimiter, charsPerColumn, 
-                                     nullString, commentString,
-                                     dateFormatString, localDateFormatString,
-                                     boolStyle, locale,
-                                     skipCols, session, true, ttl);
-        }
-        else if (format.equalsIgnoreCase("jsonline")
-                 || format.equalsIgnoreCase("jsonarray")) {
-            cdp = new CqlDelimParser(keyspace, table, delimiter, charsPerColumn,
-                                     nullString, commentString,
-                                     dateFormatString, localDateFormatString,
-                                     boolStyle, locale, 
-                                     skipCols, session, true, ttl);
+        cdp = createParser();
+        if ((0 < parseThreads) && !format.equalsIgnoreCase("jsonarray")) {
+            pipelineParsers = new ArrayList<CqlDelimParser>(parseThreads);
+            for (int i = 0; i < parseThreads; i++)
+                pipelineParsers.add(createParser());
         }
 
         insert = cdp.generateInsert();
@@ -207,19 +311,104 @@ class CqlDelimLoadTask implements Callable<Long> {
         statement.setConsistencyLevel(consistencyLevel);
         batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
         batchString = new StringBuilder();
+        if ((1 < batchSize) && (TokenAwareBatcher.Mode.ALL != batchMode))
+            batcher = new TokenAwareBatcher(batchMode, batchSize, batchFlushMs,
+                                            session.getCluster());
         if (format.equalsIgnoreCase("delim")) {
             fm = new PrintingFutureSet(numFutures, queryTimeout, 
                                        maxInsertErrors, logPrinter, 
-                                       badInsertPrinter);
+                                       badInsertPrinter, concurrencyLimiter);
         }
         else if (format.equalsIgnoreCase("jsonline")
                  || format.equalsIgnoreCase("jsonarray")) {
             fm = new JsonPrintingFutureSet(numFutures, queryTimeout, 
                                        maxInsertErrors, logPrinter, 
-                                       badInsertPrinter);
+                                       badInsertPrinter, concurrencyLimiter);
+        }
+        if (null != journal) {
+            checkpointFm = new CheckpointFutureManager(fm, journal, checkpointKey);
+            fm = checkpointFm;
         }
     }
         
+    // With a checkpoint we read through MappedLineReader when we can,
+    // since it knows the byte offset of each line
+    private boolean useMmap() throws IOException {
+        return (mmap || (null != journal)) && !format.equalsIgnoreCase("jsonarray")
+            && MappedLineReader.canMap(infile);
+    }
+
+    // Picks where to start reading: just past the checkpointed line if we
+    // know its offset, or else the last indexed line before the first
+    // line we want, if the line index is on and the file can seek
+    private void findSeek() throws IOException {
+        if ((0 <= resumeOffset) && useMmap()) {
+            seekLine = resumeLine;
+            seekOffset = resumeOffset;
+            return;
+        }
+        long skipTo = Math.max(skipRows, resumeLine);
+        long before = (null == chunk) ? 0 : chunk.getFirstLine() - 1;
+        if ((null == lineIndexDir) || format.equalsIgnoreCase("jsonarray")
+            || (skipTo < before + LineIndex.INTERVAL)
+            || !FileChunk.isSplittable(infile))
+            return;
+        long[] at = LineIndex.forFile(infile, lineIndexDir).seek(skipTo);
+        if ((null == at) || (at[0] <= before))
+            return;
+        if ((null != chunk) && (at[1] > chunk.getEnd()))
+            return;
+        seekLine = at[0];
+        seekOffset = at[1];
+        System.err.println("*** Seeking " + infile.getName() + " to line "
+                           + (seekLine + 1) + " (byte " + seekOffset
+                           + ") with the line index");
+    }
+
+    private long startOffset(long start) {
+        return (0 <= seekOffset) ? seekOffset : start;
+    }
+
+    // Byte offset after the last line read, or -1 if the reader cannot tell
+    private long position() {
+        if ((null == pipelineParsers) && (reader instanceof MappedLineReader))
+            return ((MappedLineReader)reader).getPosition();
+        return -1;
+    }
+
+    // Copies of the template share its schema lookup, so only the first
+    // parser is expensive (and none, when CqlDelimLoad made the template)
+    private CqlDelimParser createParser() throws ParseException {
+        if (null == parserTemplate) {
+            if (format.equalsIgnoreCase("delim"))
+                parserTemplate
+                    = new CqlDelimParser(cqlSchema, delimiter, charsPerColumn, 
+                                         nullString, commentString,
+                                         dateFormatString, localDateFormatString,
+                                         boolStyle, locale,
+                                         skipCols, session, true, ttl,
+                                         timestampParser);
+            else
+                parserTemplate
+                    = new CqlDelimParser(keyspace, table, delimiter, charsPerColumn,
+                                         nullString, commentString,
+                                         dateFormatString, localDateFormatString,
+                                         boolStyle, locale, 
+                                         skipCols, session, true, ttl,
+                                         timestampParser);
+        }
+        CqlDelimParser parser = new CqlDelimParser(parserTemplate);
+        if (format.equalsIgnoreCase("delim")) {
+            parser.setFastTokenizer(fastTokenizer);
+            if (typedBind)
+                parser.setValueCache(valueCache, valueCacheBytes);
+        }
+        else {
+            parser.setFastJson(fastJson);
+        }
+        return parser;
+    }
+
     private void cleanup(boolean success) throws IOException {
         if (null != badParsePrinter) {
             if (format.equalsIgnoreCase("jsonarray"))
@@ -233,36 +422,49 @@ class CqlDelimLoadTask implements Callable<Long> {
         }
         if (null != logPrinter)
             logPrinter.close();
-        if (success) {
-            if (null != successDir) {
-                Path src = infile.toPath();
-                Path dst = Paths.get(successDir);
-                Files.move(src, dst.resolve(src.getFileName()), 
-                           StandardCopyOption.REPLACE_EXISTING);
-            }
-        }
-        else {
-            if (null != failureDir) {
-                Path src = infile.toPath();
-                Path dst = Paths.get(failureDir);
-                Files.move(src, dst.resolve(src.getFileName()), 
-                           StandardCopyOption.REPLACE_EXISTING);
-            }
-        }
+        // Chunks of a split file are moved once all of them are done
+        if (null != chunk)
+            return;
+        moveFile(infile, success ? successDir : failureDir);
+    }
+
+    public static void moveFile(File file, String dir) throws IOException {
+        if ((null == dir) || (null == file))
+            return;
+        Path src = file.toPath();
+        Path dst = Paths.get(dir);
+        Files.move(src, dst.resolve(src.getFileName()), 
+                   StandardCopyOption.REPLACE_EXISTING);
     }
 
     private int sendInsert(List<Object> elements, String line) {
-        BoundStatement bind = statement.bind(elements.toArray());
-        ResultSetFuture resultSetFuture;
-        int retval = 0;
+        return sendInsert(elements.toArray(), line);
+    }
+
+    private int sendInsert(Object[] values, String line) {
+        BoundStatement bind = statement.bind(values);
         if (nullsUnset) {
-            for (int i = 0; i < elements.size(); i++)
-                if (null == elements.get(i))
+            for (int i = 0; i < values.length; i++)
+                if (null == values[i])
                     bind.unset(i);
         }
+        return send(bind, line);
+    }
+
+    // For statements filled in by CqlDelimParser.bind()
+    private int sendInsert(BoundStatement bind, String line) {
+        if (nullsUnset) {
+            for (int i = 0; i < statement.getVariables().size(); i++)
+                if (bind.isNull(i))
+                    bind.unset(i);
+        }
+        return send(bind, line);
+    }
+
+    private int send(BoundStatement bind, String line) {
+        int retval = 0;
         if (1 == batchSize) {
-            resultSetFuture = session.executeAsync(bind);
-            if (!fm.add(resultSetFuture, line)) {
+            if (!submit(bind, line)) {
                 System.err.println("There was an error.  Please check the log file for more information (" + logFname + ")");
                 //cleanup(false);
                 return -2;
@@ -270,12 +472,14 @@ class CqlDelimLoadTask implements Callable<Long> {
             //numInserted += 1;
             retval = 1;
         }
+        else if (null != batcher) {
+            retval = sendGroups(batcher.add(bind, line));
+        }
         else {
             batch.add(bind);
             batchString.append("\n").append(line);
             if (batchSize == batch.size()) {
-                resultSetFuture = session.executeAsync(batch);
-                if (!fm.add(resultSetFuture, batchString.toString())) {
+                if (!submit(batch, batchString.toString())) {
                     System.err.println("There was an error.  Please check the log file for more information (" + logFname + ")");
                     //cleanup(false);
                     return -2;
@@ -289,37 +493,161 @@ class CqlDelimLoadTask implements Callable<Long> {
         return retval;
     }
 
-    private long execute() throws IOException {
+    // Makes room with the FutureManager before sending, so the limit
+    // bounds what is in flight and latency is timed from the send
+    private boolean submit(Statement st, String lines) {
+        if (!fm.acquire())
+            return false;
+        long sent = System.nanoTime();
+        return fm.add(session.executeAsync(st), lines, sent);
+    }
+
+    private int sendGroups(List<TokenAwareBatcher.Group> groups) {
+        int retval = 0;
+        for (TokenAwareBatcher.Group group : groups) {
+            if (!submit(group.getStatement(), group.getLines())) {
+                System.err.println("There was an error.  Please check the log file for more information (" + logFname + ")");
+                return -2;
+            }
+            retval += group.size();
+        }
+        return retval;
+    }
+
+    // Sends the partition/replica batches that have been open too long,
+    // even if this line adds nothing to them
+    private int sendExpired() {
+        if (null == batcher)
+            return 0;
+        return sendGroups(batcher.expired());
+    }
+
+    // Returns false if the maximum number of errors has been reached
+    private boolean parseError(long lineNumber, String line) {
+        if (null != logPrinter) {
+            logPrinter.println(String.format("Error parsing line %d in %s: %s", lineNumber, readerName, line));
+        }
+        System.err.println(String.format("Error parsing line %d in %s: %s", lineNumber, readerName, line));
+        if (null != badParsePrinter) {
+            badParsePrinter.println(line);
+        }
+        numErrors++;
+        if (maxErrors <= numErrors) {
+            if (null != logPrinter) {
+                logPrinter.println(String.format("Maximum number of errors exceeded (%d) for %s", numErrors, readerName));
+            }
+            System.err.println(String.format("Maximum number of errors exceeded (%d) for %s", numErrors, readerName));
+            return false;
+        }
+        return true;
+    }
+
+    private long execute() throws IOException, org.json.simple.parser.ParseException {
         String line = null;
-        int lineNumber = 0;
+        long lineNumber = lineOffset;
         long numInserted = 0;
-        int numErrors = 0;
         int curBatch = 0;
         BoundStatement bind = null;
         List<Object> elements = null;
 
-        System.err.println("*** Processing " + readerName);
-        if (format.equalsIgnoreCase("delim")
+        // Line numbers are absolute, even when reading a chunk of the file
+        long firstLine = skipRows + 1;
+        long lastLine = (maxRows >= Long.MAX_VALUE - firstLine) 
+            ? Long.MAX_VALUE : firstLine + maxRows;
+        if (resumeLine >= firstLine) {
+            System.err.println("*** Resuming " + outputName + " after line "
+                               + resumeLine + " from the checkpoint");
+            firstLine = resumeLine + 1;
+        }
+
+        if (null != chunk)
+            System.err.println("*** Processing " + readerName + " (chunk " 
+                               + (chunk.getIndex() + 1) + " of " 
+                               + chunk.getNumChunks() + ", starting at line " 
+                               + chunk.getFirstLine() + ")");
+        else
+            System.err.println("*** Processing " + readerName);
+        if (null != pipelineParsers) {
+            LoadPipeline pipeline 
+                = new LoadPipeline(reader, pipelineParsers, 
+                                   format.equalsIgnoreCase("jsonline"),
+                                   lineNumber, firstLine, lastLine);
+            pipeline.start();
+            try {
+                LoadPipeline.Block block;
+                while (null != (block = pipeline.next())) {
+                    int expired = sendExpired();
+                    if (-2 == expired) {
+                        cleanup(false);
+                        return -2;
+                    }
+                    numInserted += expired;
+                    for (int i = 0; i < block.size(); i++) {
+                        line = block.getLine(i);
+                        Object[] values = block.getValues(i);
+                        if (null != values) {
+                            if (null != checkpointFm)
+                                checkpointFm.setPosition(block.getLineNumber(i), -1);
+                            int ret = sendInsert(values, line);
+                            if (-2 == ret) {
+                                cleanup(false);
+                                return -2;
+                            }
+                            numInserted += ret;
+                        }
+                        else if (!parseError(block.getLineNumber(i), line)) {
+                            cleanup(false);
+                            return -1;
+                        }
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                throw new IOException("Interrupted while loading " + readerName, e);
+            }
+            finally {
+                pipeline.stop();
+            }
+            lineNumber = pipeline.getLineNumber();
+            String stats = "*** Pipeline " + outputName + ": " + pipeline.report();
+            if (null != logPrinter)
+                logPrinter.println(stats);
+            System.err.println(stats);
+        }
+        else if (format.equalsIgnoreCase("delim")
             || format.equalsIgnoreCase("jsonline")) {
             while ((line = reader.readLine()) != null) {
                 lineNumber++;
-                if (skipRows > 0) {
-                    skipRows--;
-                    continue;
+                int expired = sendExpired();
+                if (-2 == expired) {
+                    cleanup(false);
+                    return -2;
                 }
-                if (maxRows-- < 0)
+                numInserted += expired;
+                if (lineNumber < firstLine)
+                    continue;
+                if (lineNumber > lastLine)
                     break;
 
                 if (0 == line.trim().length())
                     continue;
 
                 elements = null;
-                if (format.equalsIgnoreCase("delim"))
+                bind = null;
+                if (typedBind && format.equalsIgnoreCase("delim")) {
+                    bind = statement.bind();
+                    if (!cdp.bind(line, bind))
+                        bind = null;
+                }
+                else if (format.equalsIgnoreCase("delim"))
                     elements = cdp.parse(line);
                 else if (format.equalsIgnoreCase("jsonline"))
                     elements = cdp.parseJson(line);
-                if (null != elements) {
-                    int ret = sendInsert(elements, line);
+                if ((null != elements) || (null != bind)) {
+                    if (null != checkpointFm)
+                        checkpointFm.setPosition(lineNumber, position());
+                    int ret = (null != bind) ? sendInsert(bind, line)
+                        : sendInsert(elements, line);
                     if (-2 == ret) {
                         cleanup(false);
                         return -2;
@@ -327,32 +655,28 @@ class CqlDelimLoadTask implements Callable<Long> {
                     numInserted += ret;
                 }
                 else {
-                    if (null != logPrinter) {
-                        logPrinter.println(String.format("Error parsing line %d in %s: %s", lineNumber, readerName, line));
-                    }
-                    System.err.println(String.format("Error parsing line %d in %s: %s", lineNumber, readerName, line));
-                    if (null != badParsePrinter) {
-                        badParsePrinter.println(line);
-                    }
-                    numErrors++;
-                    if (maxErrors <= numErrors) {
-                        if (null != logPrinter) {
-                            logPrinter.println(String.format("Maximum number of errors exceeded (%d) for %s", numErrors, readerName));
-                        }
-                        System.err.println(String.format("Maximum number of errors exceeded (%d) for %s", numErrors, readerName));
+                    if (!parseError(lineNumber, line)) {
                         cleanup(false);
                         return -1;
                     }
                 }
             }
+            String report = cdp.valueCacheReport();
+            if (typedBind && (null != report)) {
+                String stats = "*** Value cache " + outputName + ": " + report;
+                if (null != logPrinter)
+                    logPrinter.println(stats);
+                System.err.println(stats);
+            }
         } // if (format.equalsIgnoreCase("delim"))
         else if (format.equalsIgnoreCase("jsonarray")) {
             boolean firstBadJson = true;
             String badJsonDelim = "[\n";
             List<String> columnBackbone = cdp.getColumnNames();
             int columnCount = columnBackbone.size();
-            for (Object o : jsonArray) {
-                JSONObject jsonRow = (JSONObject) o;
+            JSONObject jsonRow;
+            while (null != (jsonRow = jsonReader.next())) {
+                lineNumber++;
                 String[] jsonElements = new String[columnCount];
                 jsonElements[0] = jsonRow.get(columnBackbone.get(0)).toString();
                 for (int i = 1; i < columnCount; i++) {
@@ -396,24 +720,35 @@ class CqlDelimLoadTask implements Callable<Long> {
         }// if (format.equalsIgnoreCase("json"))
 
         // Send last partially filled batch
+        if (null != checkpointFm)
+            checkpointFm.setPosition(lineNumber, position());
         if ((batchSize > 1) && (batch.size() > 0)) {
-            ResultSetFuture resultSetFuture = session.executeAsync(batch);
-            if (!fm.add(resultSetFuture, line)) {
+            if (!submit(batch, line)) {
                 cleanup(false);
                 return -2;
             }
             numInserted += batch.size();
         }
+        if (null != batcher) {
+            int ret = sendGroups(batcher.flush());
+            if (-2 == ret) {
+                cleanup(false);
+                return -2;
+            }
+            numInserted += ret;
+        }
 
         if (!fm.cleanup()) {
             cleanup(false);
             return -1;
         }
+        if (null != journal)
+            journal.done(checkpointKey, lineNumber);
 
         if (null != logPrinter) {
-            logPrinter.println("*** DONE: " + readerName + "  number of lines processed: " + lineNumber + " (" + numInserted + " inserted)");
+            logPrinter.println("*** DONE: " + outputName + "  number of lines processed: " + (lineNumber - lineOffset) + " (" + numInserted + " inserted)");
         }
-        System.err.println("*** DONE: " + readerName + "  number of lines processed: " + lineNumber + " (" + numInserted + " inserted)");
+        System.err.println("*** DONE: " + outputName + "  number of lines processed: " + (lineNumber - lineOffset) + " (" + numInserted + " inserted)");
 
         cleanup(true);
         return fm.getNumInserted();
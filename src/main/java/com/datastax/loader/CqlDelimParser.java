@@ -15,6 +15,7 @@
  */
 package com.datastax.loader;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ColumnMetadata;
 import com.datastax.driver.core.DataType;
 import com.datastax.driver.core.Row;
@@ -42,9 +43,11 @@ import com.datastax.loader.parser.SetParser;
 import com.datastax.loader.parser.ShortParser;
 import com.datastax.loader.parser.StringParser;
 import com.datastax.loader.parser.UUIDParser;
+import com.datastax.loader.parser.ValueCache;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -67,18 +70,43 @@ public class CqlDelimParser {
     private String tablename;
     private DelimParser delimParser;
     private JSONParser jsonParser;
+    private JsonLineParser jsonLineParser = null;
+    private String nullString;
+    private String skipList;
     private int ttl = -1;
+    private ValueCache[] caches = null;
+
+    // What we were built with, so copies can skip the schema lookup
+    private List<DataType> columnTypes;
+    private String dateFormatString;
+    private String localDateFormatString;
+    private BooleanParser.BoolStyle boolStyle;
+    private Locale locale;
+    private boolean bLoader;
+    private Parser timestampParser;
+    private String delimiter;
+    private int charsPerColumn;
+    private String commentString;
+
+    // Types whose parsers already bind without boxing (see Parser.bind)
+    private static final EnumSet<DataType.Name> PRIMITIVE_TYPES 
+        = EnumSet.of(DataType.Name.BIGINT, DataType.Name.BOOLEAN,
+                     DataType.Name.COUNTER, DataType.Name.DOUBLE,
+                     DataType.Name.FLOAT, DataType.Name.INT,
+                     DataType.Name.SMALLINT, DataType.Name.TIME,
+                     DataType.Name.TINYINT);
 
     public CqlDelimParser(String inCqlSchema, String inDelimiter, int inCharsPerColumn,
                           String inNullString, String inCommentString, 
                           String inDateFormatString, String inLocalDateFormatString,
                           BooleanParser.BoolStyle inBoolStyle, Locale inLocale,
-                          String skipList, Session session, boolean bLoader, int inTtl) 
+                          String skipList, Session session, boolean bLoader, int inTtl,
+                          Parser inTimestampParser) 
         throws ParseException {
         // Optionally provide things for the line parser - date format, boolean format, locale
 	ttl = inTtl;
         initPmap(inDateFormatString, inLocalDateFormatString, inBoolStyle, 
-                 inLocale, bLoader);
+                 inLocale, bLoader, inTimestampParser);
         processCqlSchema(inCqlSchema, session);
         createDelimParser(inDelimiter, inCharsPerColumn, inNullString, inCommentString, skipList);
     }   
@@ -88,18 +116,39 @@ public class CqlDelimParser {
                           String inNullString, String inCommentString, 
                           String inDateFormatString, String inLocalDateFormatString,
                           BooleanParser.BoolStyle inBoolStyle, Locale inLocale,
-                          String skipList, Session session, boolean bLoader, int inTtl) 
+                          String skipList, Session session, boolean bLoader, int inTtl,
+                          Parser inTimestampParser) 
         throws ParseException {
         // Optionally provide things for the line parser - date format, boolean format, locale
 	ttl = inTtl;
         keyspace = inKeyspace;
         tablename = inTable;
         initPmap(inDateFormatString, inLocalDateFormatString, inBoolStyle, 
-                 inLocale, bLoader);
+                 inLocale, bLoader, inTimestampParser);
         processCqlSchema(session);
         createDelimParser(inDelimiter, inCharsPerColumn, inNullString, inCommentString,  skipList);
     }
 
+    // A parser for the same table and options as template, with parsers
+    // of its own.  Parsers are not thread-safe, so each task needs its
+    // own, but this way the schema is only looked up and parsed once.
+    public CqlDelimParser(CqlDelimParser template) throws ParseException {
+        ttl = template.ttl;
+        keyspace = template.keyspace;
+        tablename = template.tablename;
+        initPmap(template.dateFormatString, template.localDateFormatString,
+                 template.boolStyle, template.locale, template.bLoader,
+                 template.timestampParser);
+        setColumnNames(template.columnNames);
+        columnTypes = template.columnTypes;
+        sbl = new ArrayList<SchemaBits>();
+        for (int i = 0; i < columnTypes.size(); i++)
+            sbl.add(schemaBits(columnNames.get(i), columnTypes.get(i), i));
+        createDelimParser(template.delimiter, template.charsPerColumn,
+                          template.nullString, template.commentString,
+                          template.skipList);
+    }
+
     public List<String> getColumnNames() {
         return columnNames;
     }
@@ -118,7 +167,14 @@ public class CqlDelimParser {
     // intialize the Parsers and the parser map
     private void initPmap(String dateFormatString, String localDateFormatString,
                           BooleanParser.BoolStyle inBoolStyle, 
-                          Locale inLocale, boolean bLoader) {
+                          Locale inLocale, boolean bLoader,
+                          Parser timestampParser) {
+        this.dateFormatString = dateFormatString;
+        this.localDateFormatString = localDateFormatString;
+        boolStyle = inBoolStyle;
+        locale = inLocale;
+        this.bLoader = bLoader;
+        this.timestampParser = timestampParser;
         pmap = new HashMap<DataType.Name, Parser>();
         Parser byteParser = new ByteParser(inLocale, bLoader);
         Parser shortParser = new ShortParser(inLocale, bLoader);
@@ -133,7 +189,9 @@ public class CqlDelimParser {
         Parser bigIntegerParser = new BigIntegerParser();
         Parser byteBufferParser = new ByteBufferParser();
         Parser inetAddressParser = new InetAddressParser();
-        Parser dateParser = new DateParser(dateFormatString);
+        // A thread-safe timestamp parser may be shared by several of us
+        Parser dateParser = (null != timestampParser) ? timestampParser
+            : new DateParser(dateFormatString);
         Parser localDateParser = new LocalDateParser(localDateFormatString);
 
         pmap.put(DataType.Name.ASCII, stringParser);
@@ -233,71 +291,84 @@ public class CqlDelimParser {
         //keep the list of columns from metadata to use as column backbone for JSON
         setColumnNames(inList);
         List<SchemaBits> sbl = new ArrayList<SchemaBits>();
+        columnTypes = new ArrayList<DataType>();
         for (int i = 0; i < inList.size(); i++) {
             String col = inList.get(i);
-            SchemaBits sb = new SchemaBits();
             ColumnMetadata cm = tm.getColumn(col);
             if (null == cm) {
                 System.err.println("Column " + col + " of table " + keyspace + "." + tablename + " not found");
                 System.exit(-1);
             }
             DataType dt = cm.getType();
-            sb.name = col;
-            sb.datatype = dt.getName();
-            if (dt.isCollection()) {
-                if (sb.datatype == DataType.Name.LIST) {
-                    DataType.Name listType = dt.getTypeArguments().get(0).getName();
-                    Parser listParser = pmap.get(listType);
-                    if (null == listParser) {
-                        throw new ParseException("List data type not recognized (" 
-                                                 + listType + ")", i);
-                    }
-                    sb.parser = new ListParser(listParser, ',', '[', ']');
+            columnTypes.add(dt);
+            sbl.add(schemaBits(col, dt, i));
+        }
+        return sbl;
+    }
+
+    // The parser for column i
+    private SchemaBits schemaBits(String col, DataType dt, int i)
+        throws ParseException {
+        SchemaBits sb = new SchemaBits();
+        sb.name = col;
+        sb.datatype = dt.getName();
+        if (dt.isCollection()) {
+            if (sb.datatype == DataType.Name.LIST) {
+                DataType.Name listType = dt.getTypeArguments().get(0).getName();
+                Parser listParser = pmap.get(listType);
+                if (null == listParser) {
+                    throw new ParseException("List data type not recognized (" 
+                                             + listType + ")", i);
                 }
-                else if (sb.datatype == DataType.Name.SET) {
-                    DataType.Name setType = dt.getTypeArguments().get(0).getName();
-                    Parser setParser = pmap.get(setType);
-                    if (null == setParser) {
-                        throw new ParseException("Set data type not recognized (" 
-                                                 + setType + ")", i);
-                    }
-                    sb.parser = new SetParser(setParser, ',', '{', '}');
+                sb.parser = new ListParser(listParser, ',', '[', ']');
+            }
+            else if (sb.datatype == DataType.Name.SET) {
+                DataType.Name setType = dt.getTypeArguments().get(0).getName();
+                Parser setParser = pmap.get(setType);
+                if (null == setParser) {
+                    throw new ParseException("Set data type not recognized (" 
+                                             + setType + ")", i);
                 }
-                else if (sb.datatype == DataType.Name.MAP) {
-                    DataType.Name keyType = dt.getTypeArguments().get(0).getName();
-                    Parser keyParser = pmap.get(keyType);
-                    if (null == keyParser) {
-                        throw new ParseException("Map key data type not recognized (" 
-                                                 + keyType + ")", i);
-                    }
-                    DataType.Name valueType = dt.getTypeArguments().get(1).getName();
-                    Parser valueParser = pmap.get(valueType);
-                    if (null == valueParser) {
-                        throw new ParseException("Map value data type not recognized (" 
-                                                 + valueType + ")", i);
-                    }
-                    sb.parser = new MapParser(keyParser, valueParser, ',', '{', '}', ':');
+                sb.parser = new SetParser(setParser, ',', '{', '}');
+            }
+            else if (sb.datatype == DataType.Name.MAP) {
+                DataType.Name keyType = dt.getTypeArguments().get(0).getName();
+                Parser keyParser = pmap.get(keyType);
+                if (null == keyParser) {
+                    throw new ParseException("Map key data type not recognized (" 
+                                             + keyType + ")", i);
                 }
-                else {
-                    throw new ParseException("Collection data type not recognized (" 
-                                             + sb.datatype + ")", i);
+                DataType.Name valueType = dt.getTypeArguments().get(1).getName();
+                Parser valueParser = pmap.get(valueType);
+                if (null == valueParser) {
+                    throw new ParseException("Map value data type not recognized (" 
+                                             + valueType + ")", i);
                 }
+                sb.parser = new MapParser(keyParser, valueParser, ',', '{', '}', ':');
             }
             else {
-                sb.parser = pmap.get(sb.datatype);
-                if (null == sb.parser) {
-                    throw new ParseException("Column data type not recognized (" + sb.datatype + ")", i);
-                }
+                throw new ParseException("Collection data type not recognized (" 
+                                         + sb.datatype + ")", i);
             }
-            sbl.add(sb);
         }
-        return sbl;
+        else {
+            sb.parser = pmap.get(sb.datatype);
+            if (null == sb.parser) {
+                throw new ParseException("Column data type not recognized (" + sb.datatype + ")", i);
+            }
+        }
+        return sb;
     }
 
     // Creates the DelimParser that will parse the line
     private void createDelimParser(String delimiter, int charsPerColumn,
                                    String nullString, String commentString,
                                    String skipList) throws NumberFormatException {
+        this.nullString = (null == nullString) ? DelimParser.DEFAULT_NULLSTRING : nullString;
+        this.skipList = skipList;
+        this.delimiter = delimiter;
+        this.charsPerColumn = charsPerColumn;
+        this.commentString = commentString;
         delimParser = new DelimParser(delimiter, charsPerColumn, nullString, commentString);
         for (int i = 0; i < sbl.size(); i++)
             delimParser.add(sbl.get(i).parser);
@@ -340,6 +411,10 @@ public class CqlDelimParser {
         return tablename;
     }
 
+    public void setFastTokenizer(boolean fast) {
+        delimParser.setFastTokenizer(fast);
+    }
+
     // Pass through to parse the line - the DelimParser we created will be used.
     public List<Object> parse(String line) {
         return delimParser.parse(line);
@@ -349,8 +424,60 @@ public class CqlDelimParser {
         return delimParser.parse(row);
     }
 
+    // Parse the line straight into the statement - see DelimParser.bind()
+    public boolean bind(String line, BoundStatement bs) {
+        return delimParser.bind(line, bs);
+    }
+
+    // Give each non-primitive column a ValueCache for bind().  Columns
+    // with many distinct values turn their cache off on their own.
+    public void setValueCache(int maxEntries, long maxBytes) {
+        caches = null;
+        if (0 < maxEntries) {
+            caches = new ValueCache[sbl.size()];
+            for (int i = 0; i < sbl.size(); i++)
+                if (!PRIMITIVE_TYPES.contains(sbl.get(i).datatype))
+                    caches[i] = new ValueCache(maxEntries, maxBytes);
+        }
+        delimParser.setValueCaches(caches);
+    }
+
+    public String valueCacheReport() {
+        if (null == caches)
+            return null;
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < caches.length; i++) {
+            if (null == caches[i])
+                continue;
+            if (0 < report.length())
+                report.append("; ");
+            report.append(sbl.get(i).name).append(": ")
+                .append(caches[i].report());
+        }
+        return report.toString();
+    }
+
+    // Parse JSON lines with JsonLineParser rather than json-simple
+    public void setFastJson(boolean fast) {
+        jsonLineParser = null;
+        if (!fast || (null != skipList))
+            return;
+        List<DataType.Name> types = new ArrayList<DataType.Name>();
+        List<Parser> parsers = new ArrayList<Parser>();
+        for (SchemaBits sb : sbl) {
+            types.add(sb.datatype);
+            parsers.add(sb.parser);
+        }
+        jsonLineParser = new JsonLineParser(columnNames, types, parsers, nullString);
+    }
+
     @SuppressWarnings("unchecked")
     public List<Object> parseJson(String line) {
+        if (null != jsonLineParser) {
+            List<Object> elements = jsonLineParser.parse(line);
+            if (JsonLineParser.FALLBACK != elements)
+                return elements;
+        }
         JSONObject jsonObject = null;
         try {
             jsonObject = (JSONObject)jsonParser.parse(line);
@@ -20,20 +20,26 @@ import com.datastax.loader.parser.BooleanParser;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.LinkedHashMap;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Deque;
 import java.util.ArrayDeque;
 import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.math.BigInteger;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.FilterOutputStream;
 import java.io.BufferedOutputStream;
 import java.io.PrintStream;
 import java.io.File;
@@ -56,14 +62,20 @@ import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
 
+import org.json.simple.JSONValue;
+
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.Metadata;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.PoolingOptions;
 import com.datastax.driver.core.HostDistance;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TokenRange;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.SSLOptions;
@@ -103,6 +115,13 @@ public class CqlDelimUnload {
 
     private int numThreads = 5;
     private int fetchSize = 0;
+    private int rangeSplits = 0;
+    private int prefetchRows = 0;
+    private CompressedOutputStream.Codec compression = CompressedOutputStream.Codec.NONE;
+    private long shardRows = 0;
+    private long shardSize = 0;
+    private AtomicLong blockedNanos = new AtomicLong(0);
+    private AtomicLong formatNanos = new AtomicLong(0);
 
     private String usage() {
         StringBuilder usage = new StringBuilder("version: ").append(version).append("\n");
@@ -129,6 +148,11 @@ public class CqlDelimUnload {
         usage.append("  -endToken <tokenString>            End token [none]\n");
         usage.append("  -where <predicate>                 WHERE clause [none]\n");
         usage.append("  -fetchSize <fetchSize>             Fetch size to use [0]\n");
+        usage.append("  -rangeSplits <numSplits>           Split each cluster token range into this many pieces (0 means split -beginToken..-endToken evenly across threads) [0]\n");
+        usage.append("  -prefetchRows <numRows>            Fetch the next page when fewer than this many rows are left (0 means fetch when the page is done) [0]\n");
+        usage.append("  -compression [none|gzip|lz4|snappy] Compress the output files [none]\n");
+        usage.append("  -shardRows <numRows>               Start a new output file after this many rows, and write a manifest (0 means no limit) [0]\n");
+        usage.append("  -shardSize <numBytes>              Start a new output file after this many bytes before compression, and write a manifest (0 means no limit) [0]\n");
         return usage.toString();
     }
     
@@ -147,6 +171,22 @@ public class CqlDelimUnload {
             System.err.println("Fetch size must be non-negative");
             return false;
         }
+        if (rangeSplits < 0) {
+            System.err.println("Range splits must be non-negative");
+            return false;
+        }
+        if (prefetchRows < 0) {
+            System.err.println("Prefetch rows must be non-negative");
+            return false;
+        }
+        if ((shardRows < 0) || (shardSize < 0)) {
+            System.err.println("Shard rows and shard size must be non-negative");
+            return false;
+        }
+        if (isSharded() && filename.equalsIgnoreCase("stdout")) {
+            System.err.println("Cannot shard output to stdout");
+            return false;
+        }
         if ((null == username) && (null != password)) {
             System.err.println("If you supply the password, you must supply the username");
             return false;
@@ -290,6 +330,17 @@ public class CqlDelimUnload {
         if (null != (tkey = amap.remove("-where")))         where = tkey;
         if (null != (tkey = amap.remove("-format")))        format = tkey;
         if (null != (tkey = amap.remove("-fetchSize")))     fetchSize = Integer.parseInt(tkey);
+        if (null != (tkey = amap.remove("-rangeSplits")))   rangeSplits = Integer.parseInt(tkey);
+        if (null != (tkey = amap.remove("-prefetchRows")))  prefetchRows = Integer.parseInt(tkey);
+        if (null != (tkey = amap.remove("-shardRows")))     shardRows = Long.parseLong(tkey);
+        if (null != (tkey = amap.remove("-shardSize")))     shardSize = Long.parseLong(tkey);
+        if (null != (tkey = amap.remove("-compression"))) {
+            compression = CompressedOutputStream.getCodec(tkey);
+            if (null == compression) {
+                System.err.println("Bad compression.  Options are: none, gzip, lz4, snappy");
+                return false;
+            }
+        }
         
         if (!amap.isEmpty()) {
             for (String k : amap.keySet())
@@ -337,7 +388,7 @@ public class CqlDelimUnload {
             .addContactPoint(host)
             .withPort(port)
             .withPoolingOptions(pOpts)
-            .withLoadBalancingPolicy(new TokenAwarePolicy( DCAwareRoundRobinPolicy.builder().build()));
+            .withLoadBalancingPolicy(new TokenRangeRoutingPolicy(new TokenAwarePolicy( DCAwareRoundRobinPolicy.builder().build())));
         if (null != username)
             clusterBuilder = clusterBuilder.withCredentials(username, password);
         if (null != truststorePath)
@@ -350,6 +401,61 @@ public class CqlDelimUnload {
         session = cluster.connect();
     }
 
+    // The cluster's token ranges within (beginToken, endToken], each split
+    // into rangeSplits pieces
+    private Queue<TokenRange> splitTokenRanges() {
+        Metadata metadata = cluster.getMetadata();
+        TokenRange limits = metadata.newTokenRange(metadata.newToken(beginToken),
+                                                   metadata.newToken(endToken));
+        Queue<TokenRange> ranges = new ConcurrentLinkedQueue<TokenRange>();
+        for (TokenRange range : metadata.getTokenRanges()) {
+            for (TokenRange split : range.splitEvenly(rangeSplits)) {
+                for (TokenRange piece : split.unwrap()) {
+                    if (!piece.intersects(limits))
+                        continue;
+                    ranges.addAll(piece.intersectWith(limits));
+                }
+            }
+        }
+        return ranges;
+    }
+
+    private PrintStream openOutput(String name) throws IOException {
+        return openOutput(new FileOutputStream(name + compression.getSuffix()));
+    }
+
+    private PrintStream openOutput(PrintStream stdout) throws IOException {
+        if (CompressedOutputStream.Codec.NONE == compression)
+            return stdout;
+        return openOutput((OutputStream)stdout);
+    }
+
+    private PrintStream openOutput(OutputStream os) throws IOException {
+        return new PrintStream(openStream(os));
+    }
+
+    private OutputStream openStream(OutputStream os) throws IOException {
+        if (CompressedOutputStream.Codec.NONE == compression)
+            return new BufferedOutputStream(os);
+        return new CompressedOutputStream(os, compression);
+    }
+
+    private boolean isSharded() {
+        return (0 < shardRows) || (0 < shardSize);
+    }
+
+    // One line of JSON per shard, in thread and then shard order
+    private void writeManifest(List<ShardWriter> shardWriters)
+        throws IOException {
+        PrintStream manifest = new PrintStream(new BufferedOutputStream(new FileOutputStream(filename + ".manifest")));
+        for (ShardWriter sw : shardWriters)
+            for (Map<String, Object> entry : sw.getEntries())
+                manifest.println(JSONValue.toJSONString(entry));
+        manifest.close();
+        if (manifest.checkError())
+            throw new IOException("Error writing manifest");
+    }
+
     private void cleanup() {
         if (null != session)
             session.close();
@@ -370,13 +476,24 @@ public class CqlDelimUnload {
         // Setup
         setup();
 
+        Queue<TokenRange> ranges = null;
+        if (0 < rangeSplits)
+            ranges = splitTokenRanges();
+
         PrintStream pstream = null;
+        ShardWriter shardWriter = null;
+        List<ShardWriter> shardWriters = new ArrayList<ShardWriter>();
         if (1 == numThreads) {
             if (filename.equalsIgnoreCase("stdout")) {
-                pstream = System.out;
+                pstream = openOutput(System.out);
+            }
+            else if (isSharded()) {
+                shardWriter = new ShardWriter(filename + ".0", null, null);
+                shardWriters.add(shardWriter);
+                pstream = shardWriter.open();
             }
             else {
-                pstream = new PrintStream(new BufferedOutputStream(new FileOutputStream(filename + ".0")));
+                pstream = openOutput(filename + ".0");
             }
             beginToken = null;
             endToken = null;
@@ -397,7 +514,8 @@ public class CqlDelimUnload {
                                                       beginToken,
                                                       endToken, session,
                                                       consistencyLevel, where,
-                                                      format, fetchSize);
+                                                      format, fetchSize, ranges,
+                                                      prefetchRows, shardWriter);
             Future<Long> res = executor.submit(worker);
             total = res.get();
             executor.shutdown();
@@ -408,7 +526,14 @@ public class CqlDelimUnload {
             BigInteger delta = null;
             List<String> beginList = new ArrayList<String>();
             List<String> endList = new ArrayList<String>();
-            if (null != beginToken) {
+            if (null != ranges) {
+                // Every thread takes ranges from the shared queue
+                for (int mype = 0; mype < numThreads; mype++) {
+                    beginList.add(null);
+                    endList.add(null);
+                }
+            }
+            else if (null != beginToken) {
                 begin = new BigInteger(beginToken);
                 end = new BigInteger(endToken);
                 delta = end.subtract(begin).divide(new BigInteger(String.valueOf(numThreads)));
@@ -438,7 +563,15 @@ public class CqlDelimUnload {
             for (int mype = 0; mype < numThreads; mype++) {
                 String tBeginString = beginList.get(mype);
                 String tEndString = endList.get(mype);
-                pstream = new PrintStream(new BufferedOutputStream(new FileOutputStream(filename + "." + mype)));
+                if (isSharded()) {
+                    shardWriter = new ShardWriter(filename + "." + mype,
+                                                  tBeginString, tEndString);
+                    shardWriters.add(shardWriter);
+                    pstream = shardWriter.open();
+                }
+                else {
+                    pstream = openOutput(filename + "." + mype);
+                }
                 Callable<Long> worker = new ThreadExecute(cqlSchema, delimiter, 
                                                           nullString,
                                                           dateFormatString, 
@@ -448,14 +581,22 @@ public class CqlDelimUnload {
                                                           tBeginString,
                                                           tEndString, session,
                                                           consistencyLevel,
-                                                          where, format, fetchSize);
+                                                          where, format, fetchSize,
+                                                          ranges, prefetchRows,
+                                                          shardWriter);
                 results.add(executor.submit(worker));
             }
             executor.shutdown();
             for (Future<Long> res : results)
                 total += res.get();
         }
+        if (isSharded())
+            writeManifest(shardWriters);
         System.err.println("Total rows retrieved: " + total);
+        System.err.println("Time blocked on the network (ms): "
+                           + TimeUnit.NANOSECONDS.toMillis(blockedNanos.get())
+                           + "  Time formatting (ms): "
+                           + TimeUnit.NANOSECONDS.toMillis(formatNanos.get()));
 
         // Cleanup
         cleanup();
@@ -498,6 +639,13 @@ public class CqlDelimUnload {
         private String dateFormatString = null;
         private String localDateFormatString = null;
         private int fetchSize = 0;
+        private Queue<TokenRange> ranges = null;
+        private PreparedStatement openStatement = null;
+        private String keyspace = null;
+        private String jsonArrayChar = "[\n";
+        private int prefetchRows = 0;
+        private long blocked = 0;
+        private ShardWriter shardWriter = null;
 
         public ThreadExecute(String inCqlSchema, String inDelimiter, 
                              String inNullString, 
@@ -508,7 +656,9 @@ public class CqlDelimUnload {
                              PrintStream inWriter,
                              String inBeginToken, String inEndToken,
                              Session inSession, ConsistencyLevel inConsistencyLevel,
-                             String inWhere, String inFormat, int inFetchSize) {
+                             String inWhere, String inFormat, int inFetchSize,
+                             Queue<TokenRange> inRanges, int inPrefetchRows,
+                             ShardWriter inShardWriter) {
             super();
             cqlSchema = inCqlSchema;
             delimiter = inDelimiter;
@@ -525,6 +675,9 @@ public class CqlDelimUnload {
             where = inWhere;
             format = inFormat;
             fetchSize = inFetchSize;
+            ranges = inRanges;
+            prefetchRows = inPrefetchRows;
+            shardWriter = inShardWriter;
         }
 
         public Long call() throws IOException, ParseException {
@@ -560,10 +713,21 @@ public class CqlDelimUnload {
         private boolean setup() throws IOException, ParseException {
             cdp = new CqlDelimParser(cqlSchema, delimiter, 4096, nullString, 
                                      null, dateFormatString, localDateFormatString,
-                                     boolStyle, locale, null, session, false, -1);
+                                     boolStyle, locale, null, session, false, -1,
+                                     null);
             String select = cdp.generateSelect();
             String partitionKey = getPartitionKey(cdp, session);
-            if (null != beginToken) {
+            String openSelect = null;
+            if (null != ranges) {
+                // A range that runs to the end of the ring has no upper bound
+                openSelect = select + " WHERE Token(" + partitionKey + ") > ?";
+                select = openSelect + " AND Token(" + partitionKey + ") <= ?";
+                if (null != where) {
+                    openSelect = openSelect + " AND " + where;
+                    select = select + " AND " + where;
+                }
+            }
+            else if (null != beginToken) {
                 select = select + " WHERE Token(" + partitionKey + ") > " 
                     + beginToken + " AND Token(" + partitionKey + ") <= " 
                     + endToken;
@@ -576,6 +740,8 @@ public class CqlDelimUnload {
             }
             try {
                 statement = session.prepare(select);
+                if (null != openSelect)
+                    openStatement = session.prepare(openSelect);
             }
             catch (QueryValidationException iqe) {
                 System.err.println("Error creating statement: " + iqe.getMessage());
@@ -585,22 +751,128 @@ public class CqlDelimUnload {
                 return false;
             }
             statement.setConsistencyLevel(consistencyLevel);
+            if (null != openStatement)
+                openStatement.setConsistencyLevel(consistencyLevel);
+            keyspace = statement.getVariables().size() > 0 
+                ? statement.getVariables().getKeyspace(0) : null;
             return true;
         }
         
         private void cleanup() throws IOException {
+            if (null != shardWriter) {
+                shardWriter.close();
+                return;
+            }
             writer.flush();
             writer.close();
+            if (writer.checkError())
+                throw new IOException("Error writing output");
         }
 
         private long execute() throws IOException {
-            BoundStatement bound = statement.bind();
-            bound.setFetchSize(fetchSize);            
-            ResultSet rs = session.execute(bound);
             numRead = 0;
+            blocked = 0;
+            long start = System.nanoTime();
+            if (null != ranges) {
+                executeRanges();
+            }
+            else {
+                BoundStatement bound = statement.bind();
+                bound.setFetchSize(fetchSize);            
+                long waitStart = System.nanoTime();
+                ResultSet rs = session.execute(bound);
+                blocked += System.nanoTime() - waitStart;
+                writeRows(rs);
+            }
+            if (format.equalsIgnoreCase("jsonarray"))
+                writer.println("]");
+            blockedNanos.addAndGet(blocked);
+            formatNanos.addAndGet(System.nanoTime() - start - blocked);
+            return numRead;
+        }
+
+        // Take ranges from the shared queue until it is empty.  The query
+        // for the next range is sent before we write out the current one.
+        private void executeRanges() throws IOException {
+            TokenRange nextRange = ranges.poll();
+            ResultSetFuture next = queryRange(nextRange);
+            while (null != next) {
+                TokenRange currentRange = nextRange;
+                ResultSetFuture current = next;
+                nextRange = ranges.poll();
+                next = queryRange(nextRange);
+                long waitStart = System.nanoTime();
+                ResultSet rs = current.getUninterruptibly();
+                blocked += System.nanoTime() - waitStart;
+                if (null != shardWriter) {
+                    shardWriter.endRange();
+                    rollIfFull();
+                    shardWriter.startRange(currentRange.getStart().toString(),
+                                           currentRange.getEnd().toString());
+                }
+                writeRows(rs);
+            }
+        }
+
+        // Each shard is a complete file, so close out the JSON array
+        private void rollIfFull() throws IOException {
+            if (!shardWriter.isFull())
+                return;
+            if (format.equalsIgnoreCase("jsonarray")) {
+                writer.println("]");
+                jsonArrayChar = "[\n";
+            }
+            writer = shardWriter.roll();
+        }
+
+        private ResultSetFuture queryRange(TokenRange range) {
+            if (null == range)
+                return null;
+            BoundStatement bound;
+            if (range.getEnd().compareTo(range.getStart()) > 0) {
+                bound = statement.bind();
+                bound.setToken(1, range.getEnd());
+            }
+            else {
+                bound = openStatement.bind();
+            }
+            bound.setToken(0, range.getStart());
+            bound.setFetchSize(fetchSize);
+            Statement query = bound;
+            if (null != keyspace)
+                query = new TokenRangeRoutingPolicy.RangeStatement(bound,
+                    session.getCluster().getMetadata()
+                    .getReplicas(Metadata.quote(keyspace), range));
+            return session.executeAsync(query);
+        }
+
+        // With prefetchRows, the next page is requested once fewer than
+        // prefetchRows rows of this one are left, so it downloads while we
+        // format.  We only block (and count the time) when the page is
+        // used up before the next one has arrived.
+        private void writeRows(ResultSet rs) throws IOException {
             String s = null;
-            String jsonArrayChar = "[\n";
-            for (Row row : rs) {
+            Row row;
+            while (true) {
+                if (0 == rs.getAvailableWithoutFetching()) {
+                    if (rs.isFullyFetched())
+                        break;
+                    long waitStart = System.nanoTime();
+                    row = rs.one();
+                    blocked += System.nanoTime() - waitStart;
+                    if (null == row)
+                        break;
+                }
+                else {
+                    row = rs.one();
+                }
+                if ((0 < prefetchRows) 
+                    && (rs.getAvailableWithoutFetching() < prefetchRows)
+                    && !rs.isFullyFetched())
+                    rs.fetchMoreResults();
+
+                if (null != shardWriter)
+                    rollIfFull();
                 if (format.equalsIgnoreCase("jsonarray")) {
                     writer.print(jsonArrayChar);
                     jsonArrayChar = ",";
@@ -614,10 +886,119 @@ public class CqlDelimUnload {
                 }
                 writer.println(s);
                 numRead++;
+                if (null != shardWriter)
+                    shardWriter.addRow();
             }
-            if (format.equalsIgnoreCase("jsonarray"))
-                writer.println("]");
-            return numRead;
+        }
+    }
+
+    // Writes one thread's rows to <stem>.0, <stem>.1, ..., starting a new
+    // shard once the current one has shardRows rows or shardSize bytes
+    // (counted before compression).  Each shard remembers the token ranges
+    // its rows came from, for the manifest.  With no token ranges, the
+    // shard is part of an unload of the whole table.
+    class ShardWriter {
+        private String stem;
+        private int shard = -1;
+        private File file = null;
+        private CountingOutputStream counter = null;
+        private PrintStream writer = null;
+        private long rows = 0;
+        private String[] range = null;
+        private List<List<String>> shardRanges = null;
+        private List<Map<String, Object>> entries 
+            = new ArrayList<Map<String, Object>>();
+
+        public ShardWriter(String inStem, String inBeginToken,
+                           String inEndToken) {
+            stem = inStem;
+            if (null != inBeginToken)
+                range = new String[] {inBeginToken, inEndToken};
+        }
+
+        public PrintStream open() throws IOException {
+            shard++;
+            file = new File(stem + "." + shard + compression.getSuffix());
+            counter = new CountingOutputStream(openStream(new FileOutputStream(file)));
+            writer = new PrintStream(counter);
+            rows = 0;
+            shardRanges = new ArrayList<List<String>>();
+            if (null != range)
+                addRange();
+            return writer;
+        }
+
+        public boolean isFull() {
+            return ((0 < shardRows) && (rows >= shardRows))
+                || ((0 < shardSize) && (counter.getCount() >= shardSize));
+        }
+
+        public PrintStream roll() throws IOException {
+            finish();
+            return open();
+        }
+
+        public void startRange(String beginToken, String endToken) {
+            range = new String[] {beginToken, endToken};
+            addRange();
+        }
+
+        public void endRange() {
+            range = null;
+        }
+
+        public void addRow() {
+            rows++;
+        }
+
+        public void close() throws IOException {
+            finish();
+        }
+
+        public List<Map<String, Object>> getEntries() {
+            return entries;
+        }
+
+        private void addRange() {
+            List<String> r = new ArrayList<String>();
+            r.add(range[0]);
+            r.add(range[1]);
+            shardRanges.add(r);
+        }
+
+        private void finish() throws IOException {
+            writer.flush();
+            writer.close();
+            if (writer.checkError())
+                throw new IOException("Error writing output " + file.getPath());
+            Map<String, Object> entry = new LinkedHashMap<String, Object>();
+            entry.put("file", file.getPath());
+            entry.put("rows", rows);
+            entry.put("bytes", file.length());
+            entry.put("ranges", shardRanges);
+            entries.add(entry);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
         }
     }
 }
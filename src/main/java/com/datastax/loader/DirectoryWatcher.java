@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Hands out the files that appear in a directory, for -watch.  Files
+// already there count as new.  A file is handed out once its size and
+// modification time have not changed for SETTLE_MS, so that files still
+// being written are left alone, and files whose names start with "." are
+// ignored, so writers can use them as temporary names and then rename
+// them into place.  Each file is handed out once; if it is moved away and
+// a file with the same name shows up later, that one is new too.
+class DirectoryWatcher {
+    public static final long SETTLE_MS = 1000;
+
+    private File dir;
+    private WatchService watcher;
+    private WatchKey key;
+    // File -> {size, modified, when it last changed}
+    private Map<File, long[]> pending = new HashMap<File, long[]>();
+    private Set<File> seen = new HashSet<File>();
+    private boolean valid = true;
+
+    public DirectoryWatcher(File inDir) throws IOException {
+        dir = inDir;
+        watcher = FileSystems.getDefault().newWatchService();
+        key = dir.toPath().register(watcher,
+                                    StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_MODIFY);
+        rescan();
+    }
+
+    // False once the directory is gone
+    public boolean isValid() {
+        return valid;
+    }
+
+    // Waits up to timeoutMs for events, and returns the files that are
+    // ready, sorted by name (possibly none)
+    public List<File> next(long timeoutMs)
+        throws IOException, InterruptedException {
+        WatchKey k = watcher.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        if (null != k) {
+            for (WatchEvent<?> event : k.pollEvents()) {
+                if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+                    rescan();
+                    continue;
+                }
+                File file = dir.toPath().resolve((Path)event.context()).toFile();
+                if (StandardWatchEventKinds.ENTRY_CREATE == event.kind())
+                    seen.remove(file);
+                if (!seen.contains(file))
+                    offer(file);
+            }
+            valid = k.reset();
+        }
+        // Forget files that were moved away (e.g., to -successDir)
+        Iterator<File> sit = seen.iterator();
+        while (sit.hasNext())
+            if (!sit.next().exists())
+                sit.remove();
+
+        List<File> ready = new ArrayList<File>();
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<File, long[]>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<File, long[]> e = it.next();
+            File file = e.getKey();
+            long[] state = e.getValue();
+            if (!file.isFile()) {
+                it.remove();
+                continue;
+            }
+            long size = file.length();
+            long modified = file.lastModified();
+            if ((size != state[0]) || (modified != state[1])) {
+                state[0] = size;
+                state[1] = modified;
+                state[2] = now;
+            }
+            else if (now - state[2] >= SETTLE_MS) {
+                it.remove();
+                seen.add(file);
+                ready.add(file);
+            }
+        }
+        Collections.sort(ready, new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    return f1.getName().compareTo(f2.getName());
+                }
+            });
+        return ready;
+    }
+
+    public void close() throws IOException {
+        key.cancel();
+        watcher.close();
+    }
+
+    private void offer(File file) {
+        if (file.getName().startsWith(".") || pending.containsKey(file))
+            return;
+        pending.put(file, new long[] {-1, -1, System.currentTimeMillis()});
+    }
+
+    // Picks up anything we missed
+    private void rescan() {
+        File[] files = dir.listFiles();
+        if (null == files) {
+            valid = false;
+            return;
+        }
+        for (File file : files)
+            if (!seen.contains(file))
+                offer(file);
+    }
+}
@@ -16,6 +16,7 @@
 package com.datastax.loader;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Cluster;
@@ -30,6 +31,10 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 public class EnhancedSession implements Session {
     private Session session;
+    // Queries are prepared once, however many files (or -watch batches)
+    // are loaded with them
+    private Map<String, PreparedStatement> prepared
+        = new ConcurrentHashMap<String, PreparedStatement>();
     public EnhancedSession(Session inSession) {
         session = inSession;
     }
@@ -104,7 +109,12 @@ public class EnhancedSession implements Session {
     }
 
     public PreparedStatement prepare(String query) {
-        return session.prepare(query);
+        PreparedStatement statement = prepared.get(query);
+        if (null == statement) {
+            statement = session.prepare(query);
+            prepared.put(query, statement);
+        }
+        return statement;
     }
 
     public com.google.common.util.concurrent.ListenableFuture<PreparedStatement>
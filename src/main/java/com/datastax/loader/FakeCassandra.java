@@ -0,0 +1,799 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// An in-process stand-in for a one node cluster, so the loader can be
+// benchmarked without Cassandra.  It speaks just enough of native
+// protocol v4 for the driver and the loader: the system and schema
+// queries the driver makes when it connects (describing one table, given
+// as "keyspace.table(column type, ..., PRIMARY KEY (...))"), PREPARE of
+// an INSERT into that table, and EXECUTE and BATCH, which are answered
+// after latencyMs with nothing written.  A fraction errorRate of writes
+// get a write timeout instead.  All of its threads are named
+// THREAD_PREFIX-*, so ResourceMeter can leave them out.
+public class FakeCassandra {
+    public static final String THREAD_PREFIX = "fake-cassandra";
+
+    private static final int VERSION = 4;
+    private static final int RESPONSE = 0x80;
+
+    // Opcodes
+    private static final int ERROR = 0x00;
+    private static final int STARTUP = 0x01;
+    private static final int READY = 0x02;
+    private static final int OPTIONS = 0x05;
+    private static final int SUPPORTED = 0x06;
+    private static final int QUERY = 0x07;
+    private static final int RESULT = 0x08;
+    private static final int PREPARE = 0x09;
+    private static final int EXECUTE = 0x0A;
+    private static final int REGISTER = 0x0B;
+    private static final int BATCH = 0x0D;
+
+    // Result kinds and metadata flags
+    private static final int VOID = 0x0001;
+    private static final int ROWS = 0x0002;
+    private static final int SET_KEYSPACE = 0x0003;
+    private static final int PREPARED = 0x0004;
+    private static final int GLOBAL_TABLES_SPEC = 0x0001;
+    private static final int NO_METADATA = 0x0004;
+
+    // Error codes
+    private static final int PROTOCOL_ERROR = 0x000A;
+    private static final int WRITE_TIMEOUT = 0x1100;
+    private static final int INVALID = 0x2200;
+
+    private static final String[] BATCH_TYPES
+        = {"BATCH", "UNLOGGED_BATCH", "COUNTER"};
+    private static final Map<String, Integer> TYPE_IDS
+        = new HashMap<String, Integer>();
+    static {
+        TYPE_IDS.put("ascii", 0x0001);
+        TYPE_IDS.put("bigint", 0x0002);
+        TYPE_IDS.put("blob", 0x0003);
+        TYPE_IDS.put("boolean", 0x0004);
+        TYPE_IDS.put("counter", 0x0005);
+        TYPE_IDS.put("decimal", 0x0006);
+        TYPE_IDS.put("double", 0x0007);
+        TYPE_IDS.put("float", 0x0008);
+        TYPE_IDS.put("int", 0x0009);
+        TYPE_IDS.put("timestamp", 0x000B);
+        TYPE_IDS.put("uuid", 0x000C);
+        TYPE_IDS.put("text", 0x000D);
+        TYPE_IDS.put("varchar", 0x000D);
+        TYPE_IDS.put("varint", 0x000E);
+        TYPE_IDS.put("timeuuid", 0x000F);
+        TYPE_IDS.put("inet", 0x0010);
+        TYPE_IDS.put("date", 0x0011);
+        TYPE_IDS.put("time", 0x0012);
+        TYPE_IDS.put("smallint", 0x0013);
+        TYPE_IDS.put("tinyint", 0x0014);
+    }
+
+    private String keyspace;
+    private String table;
+    private Map<String, String> columns = new LinkedHashMap<String, String>();
+    private List<String> partitionKey = new ArrayList<String>();
+    private List<String> clusteringKey = new ArrayList<String>();
+    private long latencyMicros;
+    private double errorRate;
+
+    private UUID hostId = UUID.randomUUID();
+    private UUID schemaVersion = UUID.randomUUID();
+    private UUID tableId = UUID.randomUUID();
+
+    private ServerSocket serverSocket = null;
+    private ScheduledExecutorService timer = null;
+    private List<Connection> connections
+        = Collections.synchronizedList(new ArrayList<Connection>());
+    private AtomicInteger threadNum = new AtomicInteger(0);
+    private volatile boolean closed = false;
+
+    private LongAdder numRows = new LongAdder();
+    private LongAdder numWrites = new LongAdder();
+    private LongAdder numErrors = new LongAdder();
+
+    public FakeCassandra(String inSchema, double inLatencyMs,
+                         double inErrorRate) throws ParseException {
+        parseSchema(inSchema);
+        latencyMicros = (long)(inLatencyMs * 1000);
+        errorRate = inErrorRate;
+    }
+
+    // Listens on an ephemeral port on the loopback address
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        timer = Executors.newScheduledThreadPool(2, threadFactory("timer"));
+        Thread acceptor = threadFactory("accept").newThread(new Runnable() {
+                public void run() {
+                    accept();
+                }
+            });
+        acceptor.start();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Rows acknowledged (not counting write timeouts)
+    public long getRows() {
+        return numRows.sum();
+    }
+
+    public String report() {
+        return numRows.sum() + " rows written in " + numWrites.sum()
+            + " requests, " + numErrors.sum() + " write timeouts";
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            if (null != serverSocket)
+                serverSocket.close();
+        }
+        catch (IOException e) {
+        }
+        List<Connection> open;
+        synchronized (connections) {
+            open = new ArrayList<Connection>(connections);
+        }
+        for (Connection c : open)
+            c.close();
+        if (null != timer)
+            timer.shutdownNow();
+    }
+
+    private ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, THREAD_PREFIX + "-" + name + "-"
+                                      + threadNum.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection c = new Connection(socket);
+                connections.add(c);
+                threadFactory("conn").newThread(c).start();
+            }
+            catch (IOException e) {
+                if (!closed)
+                    System.err.println("Fake Cassandra could not accept: "
+                                       + e.getMessage());
+            }
+        }
+    }
+
+    //
+    // The table
+    //
+    private void parseSchema(String schema) throws ParseException {
+        String usage = "Expected keyspace.table(column type, ..., PRIMARY KEY (...))";
+        int open = schema.indexOf('(');
+        int dot = schema.indexOf('.');
+        if ((0 > open) || (0 > dot) || (dot > open)
+            || !schema.trim().endsWith(")"))
+            throw new ParseException(usage, 0);
+        keyspace = identifier(schema.substring(0, dot));
+        table = identifier(schema.substring(dot + 1, open));
+        String body = schema.substring(open + 1, schema.lastIndexOf(')'));
+        for (String item : split(body)) {
+            if (item.toLowerCase().startsWith("primary key")) {
+                primaryKey(item.substring(11).trim());
+                continue;
+            }
+            String[] bits = item.split("\\s+", 2);
+            if (2 != bits.length)
+                throw new ParseException(usage, 0);
+            String column = identifier(bits[0]);
+            String type = bits[1].toLowerCase().replaceAll("\\s+", "");
+            if (type.endsWith("primarykey")) {
+                type = type.substring(0, type.length() - 10);
+                partitionKey.add(column);
+            }
+            try {
+                writeType(new DataOutputStream(new ByteArrayOutputStream()), type);
+            }
+            catch (IOException e) {
+                throw new ParseException(e.getMessage(), 0);
+            }
+            columns.put(column, type);
+        }
+        if (partitionKey.isEmpty())
+            throw new ParseException("No PRIMARY KEY in " + schema, 0);
+        List<String> key = new ArrayList<String>(partitionKey);
+        key.addAll(clusteringKey);
+        for (String column : key)
+            if (!columns.containsKey(column))
+                throw new ParseException("Primary key column " + column
+                                         + " is not in the table", 0);
+    }
+
+    // (a, b) or ((a, b), c)
+    private void primaryKey(String key) throws ParseException {
+        if (!key.startsWith("(") || !key.endsWith(")"))
+            throw new ParseException("Bad PRIMARY KEY: " + key, 0);
+        List<String> parts = split(key.substring(1, key.length() - 1));
+        String first = parts.get(0);
+        if (first.startsWith("(") && first.endsWith(")")) {
+            for (String column : split(first.substring(1, first.length() - 1)))
+                partitionKey.add(identifier(column));
+        }
+        else {
+            partitionKey.add(identifier(first));
+        }
+        for (int i = 1; i < parts.size(); i++)
+            clusteringKey.add(identifier(parts.get(i)));
+    }
+
+    // Splits on commas that are not inside () or <>
+    private static List<String> split(String s) {
+        List<String> ret = new ArrayList<String>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (('(' == c) || ('<' == c))
+                depth++;
+            else if ((')' == c) || ('>' == c))
+                depth--;
+            else if ((',' == c) && (0 == depth)) {
+                ret.add(s.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        ret.add(s.substring(start).trim());
+        return ret;
+    }
+
+    // Quoted names keep their case, as in CQL
+    private static String identifier(String s) {
+        s = s.trim();
+        if ((1 < s.length()) && s.startsWith("\"") && s.endsWith("\""))
+            return s.substring(1, s.length() - 1);
+        return s.toLowerCase();
+    }
+
+    //
+    // Requests
+    //
+    private class Connection implements Runnable {
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        public Connection(Socket inSocket) throws IOException {
+            socket = inSocket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    int version = in.read();
+                    if (-1 == version)
+                        break;
+                    in.readUnsignedByte(); // flags
+                    short stream = in.readShort();
+                    int opcode = in.readUnsignedByte();
+                    byte[] body = new byte[in.readInt()];
+                    in.readFully(body);
+                    handle(version, stream, opcode, ByteBuffer.wrap(body));
+                }
+            }
+            catch (EOFException e) {
+            }
+            catch (IOException e) {
+                if (!closed)
+                    System.err.println("Fake Cassandra connection error: "
+                                       + e.getMessage());
+            }
+            finally {
+                close();
+            }
+        }
+
+        private void handle(int version, short stream, int opcode,
+                            ByteBuffer body) throws IOException {
+            if (VERSION != version) {
+                send(RESPONSE | version, stream, ERROR,
+                     error(PROTOCOL_ERROR, "Invalid or unsupported protocol version ("
+                           + version + "); supported versions are (4/v4)"));
+                return;
+            }
+            switch (opcode) {
+            case STARTUP:
+            case REGISTER:
+                send(stream, READY, new byte[0]);
+                break;
+            case OPTIONS:
+                send(stream, SUPPORTED, supported());
+                break;
+            case QUERY:
+                send(stream, RESULT, query(readLongString(body)));
+                break;
+            case PREPARE:
+                prepare(stream, readLongString(body));
+                break;
+            case EXECUTE: {
+                body.position(body.position() + body.getShort()); // id
+                write(stream, 1, "SIMPLE", body.getShort());
+                break;
+            }
+            case BATCH: {
+                int type = body.get();
+                int n = body.getShort();
+                skipBatchStatements(body, n);
+                write(stream, n, BATCH_TYPES[type], body.getShort());
+                break;
+            }
+            default:
+                send(stream, ERROR, error(PROTOCOL_ERROR,
+                                          "Unsupported opcode " + opcode));
+            }
+        }
+
+        private void prepare(short stream, String query) throws IOException {
+            List<String> bound = insertColumns(query);
+            if (null == bound) {
+                send(stream, ERROR, error(INVALID, "Only INSERT INTO "
+                                          + keyspace + "." + table
+                                          + " is supported"));
+                return;
+            }
+            for (String column : bound) {
+                if (!columns.containsKey(column)) {
+                    send(stream, ERROR, error(INVALID, "Undefined column name "
+                                              + column));
+                    return;
+                }
+            }
+            send(stream, RESULT, prepared(query, bound));
+        }
+
+        // Answers a write of n rows now, or after the latency
+        private void write(final short stream, int n, String writeType,
+                           int consistency) throws IOException {
+            numWrites.increment();
+            final int opcode;
+            final byte[] response;
+            if ((0 < errorRate)
+                && (ThreadLocalRandom.current().nextDouble() < errorRate)) {
+                numErrors.increment();
+                opcode = ERROR;
+                response = writeTimeout(consistency, writeType);
+            }
+            else {
+                numRows.add(n);
+                opcode = RESULT;
+                response = voidResult();
+            }
+            if (0 == latencyMicros) {
+                send(stream, opcode, response);
+                return;
+            }
+            timer.schedule(new Runnable() {
+                    public void run() {
+                        try {
+                            send(stream, opcode, response);
+                        }
+                        catch (IOException e) {
+                            close();
+                        }
+                    }
+                }, latencyMicros, TimeUnit.MICROSECONDS);
+        }
+
+        private void send(short stream, int opcode, byte[] body)
+            throws IOException {
+            send(RESPONSE | VERSION, stream, opcode, body);
+        }
+
+        private void send(int version, short stream, int opcode, byte[] body)
+            throws IOException {
+            synchronized (out) {
+                out.writeByte(version);
+                out.writeByte(0);
+                out.writeShort(stream);
+                out.writeByte(opcode);
+                out.writeInt(body.length);
+                out.write(body);
+                out.flush();
+            }
+        }
+
+        public void close() {
+            connections.remove(this);
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+            }
+        }
+    }
+
+    private static String readLongString(ByteBuffer body) {
+        byte[] b = new byte[body.getInt()];
+        body.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // Skips to the consistency level that follows the statements
+    private static void skipBatchStatements(ByteBuffer body, int n) {
+        for (int i = 0; i < n; i++) {
+            int kind = body.get();
+            if (0 == kind)
+                body.position(body.position() + 4 + body.getInt(body.position()));
+            else
+                body.position(body.position() + 2 + body.getShort(body.position()));
+            int values = body.getShort();
+            for (int j = 0; j < values; j++) {
+                int len = body.getInt();
+                if (0 < len)
+                    body.position(body.position() + len);
+            }
+        }
+    }
+
+    // The bound columns of INSERT INTO keyspace.table(a, b, ...) VALUES ...
+    private List<String> insertColumns(String query) {
+        String lower = query.toLowerCase();
+        int open = query.indexOf('(');
+        int close = query.indexOf(')', open + 1);
+        if (!lower.trim().startsWith("insert") || (0 > open) || (0 > close))
+            return null;
+        List<String> ret = new ArrayList<String>();
+        for (String column : split(query.substring(open + 1, close)))
+            ret.add(identifier(column));
+        return ret;
+    }
+
+    //
+    // Responses
+    //
+    private byte[] query(String query) throws IOException {
+        String lower = query.trim().toLowerCase();
+        if (lower.startsWith("use ")) {
+            Body b = new Body();
+            b.out.writeInt(SET_KEYSPACE);
+            writeString(b.out, identifier(query.trim().substring(4)));
+            return b.bytes();
+        }
+        if (lower.contains("system.local"))
+            return local();
+        if (lower.contains("system_schema.keyspaces"))
+            return keyspaces();
+        if (lower.contains("system_schema.tables"))
+            return tables();
+        if (lower.contains("system_schema.columns"))
+            return columns();
+        if (lower.startsWith("select")) // system.peers, other schema tables
+            return rows("system", "unknown", new String[0], new String[0],
+                        new ArrayList<byte[][]>());
+        return voidResult();
+    }
+
+    private byte[] local() throws IOException {
+        String[] names = {"key", "bootstrapped", "broadcast_address",
+                          "cluster_name", "cql_version", "data_center",
+                          "host_id", "listen_address", "native_protocol_version",
+                          "partitioner", "rack", "release_version",
+                          "rpc_address", "schema_version", "tokens"};
+        String[] types = {"text", "text", "inet", "text", "text", "text",
+                          "uuid", "inet", "text", "text", "text", "text",
+                          "inet", "uuid", "set<text>"};
+        byte[] address = InetAddress.getLoopbackAddress().getAddress();
+        List<byte[][]> rows = new ArrayList<byte[][]>();
+        rows.add(new byte[][] {
+                text("local"), text("COMPLETED"), address,
+                text("Fake Cassandra"), text("3.4.4"), text("datacenter1"),
+                uuid(hostId), address, text(Integer.toString(VERSION)),
+                text("org.apache.cassandra.dht.Murmur3Partitioner"),
+                text("rack1"), text("3.11.0"), address,
+                uuid(schemaVersion), set(text("0"))});
+        return rows("system", "local", names, types, rows);
+    }
+
+    private byte[] keyspaces() throws IOException {
+        String[] names = {"keyspace_name", "durable_writes", "replication"};
+        String[] types = {"text", "boolean", "map<text,text>"};
+        List<byte[][]> rows = new ArrayList<byte[][]>();
+        rows.add(new byte[][] {
+                text(keyspace), new byte[] {1},
+                map(text("class"),
+                    text("org.apache.cassandra.locator.SimpleStrategy"),
+                    text("replication_factor"), text("1"))});
+        return rows("system_schema", "keyspaces", names, types, rows);
+    }
+
+    private byte[] tables() throws IOException {
+        String[] names = {"keyspace_name", "table_name", "bloom_filter_fp_chance",
+                          "caching", "comment", "compaction", "compression",
+                          "crc_check_chance", "dclocal_read_repair_chance",
+                          "default_time_to_live", "extensions", "flags",
+                          "gc_grace_seconds", "id", "max_index_interval",
+                          "memtable_flush_period_in_ms", "min_index_interval",
+                          "read_repair_chance", "speculative_retry"};
+        String[] types = {"text", "text", "double", "map<text,text>", "text",
+                          "map<text,text>", "map<text,text>", "double",
+                          "double", "int", "map<text,blob>", "set<text>",
+                          "int", "uuid", "int", "int", "int", "double", "text"};
+        List<byte[][]> rows = new ArrayList<byte[][]>();
+        rows.add(new byte[][] {
+                text(keyspace), text(table), doubleValue(0.01),
+                map(text("keys"), text("ALL"),
+                    text("rows_per_partition"), text("NONE")),
+                text(""),
+                map(text("class"), text("org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy")),
+                map(text("chunk_length_in_kb"), text("64"),
+                    text("class"), text("org.apache.cassandra.io.compress.LZ4Compressor")),
+                doubleValue(1.0), doubleValue(0.1), intValue(0),
+                map(), set(text("compound")),
+                intValue(864000), uuid(tableId), intValue(2048), intValue(0),
+                intValue(128), doubleValue(0.0), text("99PERCENTILE")});
+        return rows("system_schema", "tables", names, types, rows);
+    }
+
+    private byte[] columns() throws IOException {
+        String[] names = {"keyspace_name", "table_name", "column_name",
+                          "clustering_order", "kind", "position", "type"};
+        String[] types = {"text", "text", "text", "text", "text", "int", "text"};
+        List<byte[][]> rows = new ArrayList<byte[][]>();
+        for (Map.Entry<String, String> e : columns.entrySet()) {
+            String column = e.getKey();
+            String kind = "regular";
+            String order = "none";
+            int position = partitionKey.indexOf(column);
+            if (0 <= position) {
+                kind = "partition_key";
+            }
+            else if (0 <= (position = clusteringKey.indexOf(column))) {
+                kind = "clustering";
+                order = "asc";
+            }
+            rows.add(new byte[][] {
+                    text(keyspace), text(table), text(column), text(order),
+                    text(kind), intValue(position), text(e.getValue())});
+        }
+        return rows("system_schema", "columns", names, types, rows);
+    }
+
+    private byte[] prepared(String query, List<String> bound)
+        throws IOException {
+        Body b = new Body();
+        b.out.writeInt(PREPARED);
+        byte[] id = md5(query);
+        b.out.writeShort(id.length);
+        b.out.write(id);
+        // Bind variables, with the partition key indexes for routing
+        b.out.writeInt(GLOBAL_TABLES_SPEC);
+        b.out.writeInt(bound.size());
+        if (bound.containsAll(partitionKey)) {
+            b.out.writeInt(partitionKey.size());
+            for (String column : partitionKey)
+                b.out.writeShort(bound.indexOf(column));
+        }
+        else {
+            b.out.writeInt(0);
+        }
+        writeString(b.out, keyspace);
+        writeString(b.out, table);
+        for (String column : bound) {
+            writeString(b.out, column);
+            writeType(b.out, columns.get(column));
+        }
+        // An INSERT returns no columns
+        b.out.writeInt(NO_METADATA);
+        b.out.writeInt(0);
+        return b.bytes();
+    }
+
+    private byte[] rows(String ks, String tbl, String[] names, String[] types,
+                        List<byte[][]> rows) throws IOException {
+        Body b = new Body();
+        b.out.writeInt(ROWS);
+        b.out.writeInt(GLOBAL_TABLES_SPEC);
+        b.out.writeInt(names.length);
+        writeString(b.out, ks);
+        writeString(b.out, tbl);
+        for (int i = 0; i < names.length; i++) {
+            writeString(b.out, names[i]);
+            writeType(b.out, types[i]);
+        }
+        b.out.writeInt(rows.size());
+        for (byte[][] row : rows)
+            for (byte[] cell : row)
+                writeBytes(b.out, cell);
+        return b.bytes();
+    }
+
+    private static byte[] supported() throws IOException {
+        Body b = new Body();
+        b.out.writeShort(2);
+        writeString(b.out, "CQL_VERSION");
+        b.out.writeShort(1);
+        writeString(b.out, "3.4.4");
+        writeString(b.out, "COMPRESSION");
+        b.out.writeShort(0);
+        return b.bytes();
+    }
+
+    private static byte[] voidResult() {
+        return new byte[] {0, 0, 0, VOID};
+    }
+
+    private static byte[] error(int code, String message) throws IOException {
+        Body b = new Body();
+        b.out.writeInt(code);
+        writeString(b.out, message);
+        return b.bytes();
+    }
+
+    private static byte[] writeTimeout(int consistency, String writeType)
+        throws IOException {
+        Body b = new Body();
+        b.out.writeInt(WRITE_TIMEOUT);
+        writeString(b.out, "Operation timed out - received only 0 responses.");
+        b.out.writeShort(consistency);
+        b.out.writeInt(0);
+        b.out.writeInt(1);
+        writeString(b.out, writeType);
+        return b.bytes();
+    }
+
+    //
+    // Encoding
+    //
+    private static class Body {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        byte[] bytes() {
+            return bytes.toByteArray();
+        }
+    }
+
+    private static void writeType(DataOutputStream out, String type)
+        throws IOException {
+        if (type.startsWith("frozen<")) {
+            writeType(out, type.substring(7, type.length() - 1));
+            return;
+        }
+        if (type.startsWith("list<") || type.startsWith("set<")) {
+            out.writeShort(type.startsWith("list<") ? 0x0020 : 0x0022);
+            writeType(out, type.substring(type.indexOf('<') + 1,
+                                          type.length() - 1));
+            return;
+        }
+        if (type.startsWith("map<")) {
+            List<String> kv = split(type.substring(4, type.length() - 1));
+            if (2 != kv.size())
+                throw new IOException("Bad map type: " + type);
+            out.writeShort(0x0021);
+            writeType(out, kv.get(0));
+            writeType(out, kv.get(1));
+            return;
+        }
+        Integer id = TYPE_IDS.get(type);
+        if (null == id)
+            throw new IOException("Unsupported type: " + type);
+        out.writeShort(id);
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(b.length);
+        out.write(b);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b)
+        throws IOException {
+        if (null == b) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static byte[] text(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] intValue(int v) {
+        return ByteBuffer.allocate(4).putInt(v).array();
+    }
+
+    private static byte[] doubleValue(double v) {
+        return ByteBuffer.allocate(8).putDouble(v).array();
+    }
+
+    private static byte[] uuid(UUID v) {
+        return ByteBuffer.allocate(16).putLong(v.getMostSignificantBits())
+            .putLong(v.getLeastSignificantBits()).array();
+    }
+
+    private static byte[] set(byte[]... elements) throws IOException {
+        return collection(elements.length, elements);
+    }
+
+    // Keys and values alternate
+    private static byte[] map(byte[]... elements) throws IOException {
+        return collection(elements.length / 2, elements);
+    }
+
+    private static byte[] collection(int n, byte[][] elements)
+        throws IOException {
+        Body b = new Body();
+        b.out.writeInt(n);
+        for (byte[] e : elements)
+            writeBytes(b.out, e);
+        return b.bytes();
+    }
+
+    private static byte[] md5(String s) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(text(s));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
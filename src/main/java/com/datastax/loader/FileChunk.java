@@ -0,0 +1,333 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// A byte range of an uncompressed input file that begins and ends on a
+// line boundary, along with the number of the first line in the range.
+// Chunks let several CqlDelimLoadTasks work on one large file while
+// still reporting the same line numbers a single reader would.
+class FileChunk {
+    private static final int BUFSIZE = 1024 * 1024;
+
+    private File file;
+    private int index;
+    private int numChunks;
+    private long start;
+    private long end;
+    private long firstLine;
+
+    public FileChunk(File inFile, int inIndex, int inNumChunks,
+                     long inStart, long inEnd, long inFirstLine) {
+        file = inFile;
+        index = inIndex;
+        numChunks = inNumChunks;
+        start = inStart;
+        end = inEnd;
+        firstLine = inFirstLine;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getNumChunks() {
+        return numChunks;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long length() {
+        return end - start;
+    }
+
+    // 1-based number of the first line in this chunk
+    public long getFirstLine() {
+        return firstLine;
+    }
+
+    public String toString() {
+        return file.getName() + "[" + index + "/" + numChunks + "]("
+            + start + "-" + end + ", line " + firstLine + ")";
+    }
+
+    public InputStream open() throws IOException {
+        return open(start);
+    }
+
+    // Reads from offset from (a line boundary inside the chunk) to the end
+    public InputStream open(long from) throws IOException {
+        return new ChunkInputStream(new FileInputStream(file).getChannel(),
+                                    from, end);
+    }
+
+    // Only plain files can be split - we cannot seek into a compressed
+    // stream
+    public static boolean isSplittable(File infile) throws IOException {
+        if ((null == infile) || (!infile.isFile()))
+            return false;
+        return !CompressedInputStream.isCompressed(infile);
+    }
+
+    // Split the file into chunks of roughly splitSize bytes.  Each chunk
+    // boundary is moved forward to the end of the line it lands in,
+    // skipping over line breaks that are inside a quoted field.  The
+    // lines in each chunk are then counted in parallel on the executor
+    // so that every chunk knows the number of its first line.
+    // A null quote disables quote tracking (e.g., for JSON lines).
+    public static List<FileChunk> split(final File infile, long splitSize,
+                                        char delim, Character quote,
+                                        Character escape,
+                                        ExecutorService executor)
+        throws IOException, InterruptedException, ExecutionException {
+        long length = infile.length();
+        List<Long> bounds = new ArrayList<Long>();
+        bounds.add(0L);
+        FileChannel channel = new FileInputStream(infile).getChannel();
+        try {
+            ByteWindow window = new ByteWindow(channel, length);
+            long last = 0;
+            for (long target = splitSize; target < length; target += splitSize) {
+                if (target <= last)
+                    continue;
+                long b = boundaryAfter(window, target, delim, quote, escape);
+                if ((b > last) && (b < length)) {
+                    bounds.add(b);
+                    last = b;
+                }
+            }
+        }
+        finally {
+            channel.close();
+        }
+        bounds.add(length);
+
+        List<Future<Long>> counts = new ArrayList<Future<Long>>();
+        for (int i = 0; i < bounds.size() - 1; i++) {
+            final long cstart = bounds.get(i);
+            final long cend = bounds.get(i + 1);
+            counts.add(executor.submit(new Callable<Long>() {
+                    public Long call() throws IOException {
+                        return countLines(infile, cstart, cend);
+                    }
+                }));
+        }
+
+        List<FileChunk> chunks = new ArrayList<FileChunk>();
+        long line = 1;
+        int numChunks = counts.size();
+        for (int i = 0; i < numChunks; i++) {
+            chunks.add(new FileChunk(infile, i, numChunks, bounds.get(i),
+                                     bounds.get(i + 1), line));
+            line += counts.get(i).get();
+        }
+        return chunks;
+    }
+
+    // Returns the offset just past the first line terminator at or after
+    // target that is not inside a quoted field.  We assume the line that
+    // target lands in starts outside of quotes.
+    private static long boundaryAfter(ByteWindow window, long target,
+                                      char delim, Character quote,
+                                      Character escape)
+        throws IOException {
+        long length = window.length();
+        long pos = target - 1;
+        while ((pos >= 0) && !isEol(window.get(pos)))
+            pos--;
+        pos++;
+
+        boolean inQuote = false;
+        boolean fieldStart = true;
+        while (pos < length) {
+            int c = window.get(pos);
+            if ((null != escape) && (c == escape)) {
+                pos += 2;
+                fieldStart = false;
+                continue;
+            }
+            if (inQuote) {
+                if (c == quote)
+                    inQuote = false;
+                pos++;
+                continue;
+            }
+            if (isEol(c)) {
+                long next = pos + 1;
+                if (('\r' == c) && (next < length) && ('\n' == window.get(next)))
+                    next++;
+                if (next >= target)
+                    return next;
+                pos = next;
+                fieldStart = true;
+                continue;
+            }
+            if ((null != quote) && (c == quote) && fieldStart) {
+                inQuote = true;
+            }
+            else if (c == delim) {
+                fieldStart = true;
+            }
+            else if ((' ' != c) && ('\t' != c)) {
+                fieldStart = false;
+            }
+            pos++;
+        }
+        return length;
+    }
+
+    private static boolean isEol(int c) {
+        return ('\n' == c) || ('\r' == c);
+    }
+
+    // Counts lines the same way BufferedReader.readLine() does: a line is
+    // ended by \n, \r, or \r\n, and a trailing partial line also counts.
+    private static long countLines(File infile, long start, long end)
+        throws IOException {
+        FileChannel channel = new FileInputStream(infile).getChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(BUFSIZE);
+            long pos = start;
+            long lines = 0;
+            boolean prevCR = false;
+            int last = -1;
+            while (pos < end) {
+                buf.clear();
+                if (end - pos < buf.capacity())
+                    buf.limit((int)(end - pos));
+                int n = channel.read(buf, pos);
+                if (n <= 0)
+                    break;
+                byte[] arr = buf.array();
+                for (int i = 0; i < n; i++) {
+                    byte c = arr[i];
+                    if ('\n' == c) {
+                        if (!prevCR)
+                            lines++;
+                        prevCR = false;
+                    }
+                    else if ('\r' == c) {
+                        lines++;
+                        prevCR = true;
+                    }
+                    else {
+                        prevCR = false;
+                    }
+                }
+                last = arr[n - 1];
+                pos += n;
+            }
+            if ((-1 != last) && !isEol(last))
+                lines++;
+            return lines;
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    // Random access to a file through a small read-ahead window
+    private static class ByteWindow {
+        private FileChannel channel;
+        private long length;
+        private ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        private long bufStart = -1;
+        private int bufLen = 0;
+
+        ByteWindow(FileChannel inChannel, long inLength) {
+            channel = inChannel;
+            length = inLength;
+        }
+
+        long length() {
+            return length;
+        }
+
+        int get(long pos) throws IOException {
+            if ((pos < bufStart) || (pos >= bufStart + bufLen)) {
+                // Center the window a little behind pos so that backing
+                // up to the start of the line does not thrash
+                long wstart = Math.max(0, pos - buf.capacity() / 4);
+                buf.clear();
+                bufLen = Math.max(0, channel.read(buf, wstart));
+                bufStart = wstart;
+                if (pos >= bufStart + bufLen)
+                    throw new IOException("Unexpected end of file at " + pos);
+            }
+            return buf.get((int)(pos - bufStart)) & 0xFF;
+        }
+    }
+
+    // An InputStream over [start, end) of a FileChannel
+    private static class ChunkInputStream extends InputStream {
+        private FileChannel channel;
+        private long pos;
+        private long end;
+
+        ChunkInputStream(FileChannel inChannel, long inStart, long inEnd) {
+            channel = inChannel;
+            pos = inStart;
+            end = inEnd;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return (n <= 0) ? -1 : (b[0] & 0xFF);
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= end)
+                return -1;
+            if (len > end - pos)
+                len = (int)(end - pos);
+            int n = channel.read(ByteBuffer.wrap(b, off, len), pos);
+            if (n > 0)
+                pos += n;
+            return n;
+        }
+
+        public int available() {
+            return (int)Math.min(Integer.MAX_VALUE, end - pos);
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
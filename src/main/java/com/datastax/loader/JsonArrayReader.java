@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Reads a JSON array of objects one object at a time.  We drive the
+// json-simple parser with a ContentHandler that builds only the current
+// element and pauses the parse when it is complete, so memory use does
+// not depend on the size of the array.
+class JsonArrayReader implements ContentHandler {
+    private JSONParser parser = new JSONParser();
+    private Reader reader;
+    private boolean started = false;
+    private boolean finished = false;
+    private Deque<Object> stack = new ArrayDeque<Object>();
+    private Deque<String> keys = new ArrayDeque<String>();
+    private int depth = 0;
+    private JSONObject current = null;
+
+    public JsonArrayReader(Reader inReader) {
+        reader = inReader;
+    }
+
+    // The next object in the array, or null at the end of the array
+    public JSONObject next() throws IOException, ParseException {
+        if (finished)
+            return null;
+        current = null;
+        parser.parse(reader, this, started);
+        started = true;
+        if (null == current)
+            finished = true;
+        return current;
+    }
+
+    public void startJSON() {
+    }
+
+    public void endJSON() {
+    }
+
+    public boolean startObject() throws ParseException {
+        if (0 == depth)
+            throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN,
+                                     "Expected a JSON array");
+        depth++;
+        stack.push(new JSONObject());
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean endObject() {
+        depth--;
+        JSONObject obj = (JSONObject)stack.pop();
+        if (stack.isEmpty()) {
+            // A complete element of the top-level array
+            current = obj;
+            return false;
+        }
+        addValue(obj);
+        return true;
+    }
+
+    public boolean startObjectEntry(String key) {
+        keys.push(key);
+        return true;
+    }
+
+    public boolean endObjectEntry() {
+        keys.pop();
+        return true;
+    }
+
+    public boolean startArray() {
+        depth++;
+        if (1 < depth)
+            stack.push(new JSONArray());
+        return true;
+    }
+
+    public boolean endArray() {
+        depth--;
+        if (0 < depth)
+            addValue(stack.pop());
+        return true;
+    }
+
+    public boolean primitive(Object value) throws ParseException {
+        if (stack.isEmpty())
+            throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN,
+                                     "Expected a JSON object in the array: " + value);
+        addValue(value);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addValue(Object value) throws IllegalStateException {
+        Object parent = stack.peek();
+        if (null == parent)
+            throw new IllegalStateException("Expected a JSON object in the array: " + value);
+        if (parent instanceof JSONObject)
+            ((JSONObject)parent).put(keys.peek(), value);
+        else
+            ((JSONArray)parent).add(value);
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import com.datastax.driver.core.DataType;
+import com.datastax.loader.parser.AbstractParser;
+import com.datastax.loader.parser.Parser;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Parses one JSON object per line straight into the values to bind,
+// without building a JSONObject.  Keys are mapped to column indexes once
+// (a key may be given with or without the surrounding double quotes of
+// the column name).  JSON numbers and booleans are converted directly to
+// the column's Java type; strings, and numbers for other column types,
+// go through the column's Parser just like a delimited field.
+// Returns null for lines that do not parse.  Lines with nested objects
+// or arrays are not handled here and return FALLBACK.
+class JsonLineParser {
+    public static final List<Object> FALLBACK = new ArrayList<Object>();
+
+    private Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+    private DataType.Name[] types;
+    private Parser[] parsers;
+    private String nullString;
+    private Object[] values;
+    private List<Object> elements;
+    private StringBuilder sb = new StringBuilder();
+
+    // parsing state
+    private String line;
+    private int pos;
+
+    public JsonLineParser(List<String> names, List<DataType.Name> inTypes,
+                          List<Parser> inParsers, String inNullString) {
+        int n = names.size();
+        types = inTypes.toArray(new DataType.Name[n]);
+        parsers = inParsers.toArray(new Parser[n]);
+        nullString = inNullString;
+        for (int i = 0; i < n; i++) {
+            String name = names.get(i);
+            columnIndex.put(name, i);
+            String stripped = AbstractParser.stripQuote(name);
+            if (!columnIndex.containsKey(stripped))
+                columnIndex.put(stripped, i);
+        }
+        values = new Object[n];
+        elements = new ArrayList<Object>(n);
+    }
+
+    public List<Object> parse(String inLine) {
+        line = inLine;
+        pos = 0;
+        Arrays.fill(values, null);
+        boolean unknown = false;
+        try {
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() != '}') {
+                while (true) {
+                    skipWhitespace();
+                    String key = readString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    Integer idx = columnIndex.get(key);
+                    if (null == idx) {
+                        System.err.println("Unknown JSON field " + key);
+                        unknown = true;
+                        skipValue();
+                    }
+                    else {
+                        int i = idx;
+                        char c = peek();
+                        if (('{' == c) || ('[' == c))
+                            return FALLBACK;
+                        values[i] = readValue(i);
+                    }
+                    skipWhitespace();
+                    char c = next();
+                    if ('}' == c)
+                        break;
+                    if (',' != c)
+                        throw new ParseException("Expected , or } at " + (pos - 1), pos - 1);
+                }
+            }
+            else {
+                pos++;
+            }
+        }
+        catch (NumberFormatException e) {
+            System.err.println(String.format("Invalid number in input: %s", e.getMessage()));
+            return null;
+        }
+        catch (ParseException e) {
+            System.err.println(String.format("Invalid format in input: %s", e.getMessage()));
+            return null;
+        }
+        if (unknown)
+            return null;
+
+        elements.clear();
+        for (int i = 0; i < values.length; i++)
+            elements.add(values[i]);
+        return elements;
+    }
+
+    private Object readValue(int i) throws ParseException {
+        char c = peek();
+        if ('"' == c)
+            return convert(i, readString());
+        if (('t' == c) || ('f' == c)) {
+            boolean b;
+            if (readLiteral("true"))
+                b = true;
+            else if (readLiteral("false"))
+                b = false;
+            else
+                throw new ParseException("Unexpected token at " + pos, pos);
+            if (DataType.Name.BOOLEAN == types[i])
+                return b;
+            return convert(i, Boolean.toString(b));
+        }
+        if ('n' == c) {
+            if (!readLiteral("null"))
+                throw new ParseException("Unexpected token at " + pos, pos);
+            return null;
+        }
+        return readNumber(i);
+    }
+
+    // The same handling a delimited field gets
+    private Object convert(int i, String s) throws ParseException {
+        if ((null != nullString)
+            && nullString.equalsIgnoreCase(AbstractParser.unquote(s)))
+            return null;
+        return parsers[i].parse(s);
+    }
+
+    private Object readNumber(int i) throws ParseException {
+        int start = pos;
+        boolean integral = true;
+        if ((pos < line.length()) && ('-' == line.charAt(pos)))
+            pos++;
+        while (pos < line.length()) {
+            char c = line.charAt(pos);
+            if ((c >= '0') && (c <= '9')) {
+                pos++;
+            }
+            else if (('.' == c) || ('e' == c) || ('E' == c)
+                     || ('+' == c) || ('-' == c)) {
+                integral = false;
+                pos++;
+            }
+            else {
+                break;
+            }
+        }
+        if (start == pos)
+            throw new ParseException("Unexpected token at " + pos, pos);
+        String num = line.substring(start, pos);
+        switch (types[i]) {
+        case INT:
+            if (integral)
+                return (int)Long.parseLong(num);
+            break;
+        case BIGINT:
+        case COUNTER:
+        case TIME:
+            if (integral)
+                return Long.parseLong(num);
+            break;
+        case SMALLINT:
+            if (integral)
+                return (short)Long.parseLong(num);
+            break;
+        case TINYINT:
+            if (integral)
+                return (byte)Long.parseLong(num);
+            break;
+        case DOUBLE:
+            return Double.parseDouble(num);
+        case FLOAT:
+            return Float.parseFloat(num);
+        case DECIMAL:
+            return new BigDecimal(num);
+        case VARINT:
+            if (integral)
+                return new BigInteger(num);
+            break;
+        default:
+            break;
+        }
+        // Use the text json-simple would have given us
+        String text = integral ? Long.toString(Long.parseLong(num))
+            : Double.toString(Double.parseDouble(num));
+        return convert(i, text);
+    }
+
+    private String readString() throws ParseException {
+        expect('"');
+        int start = pos;
+        // Fast path: no escapes
+        while (pos < line.length()) {
+            char c = line.charAt(pos);
+            if ('"' == c) {
+                pos++;
+                return line.substring(start, pos - 1);
+            }
+            if ('\\' == c)
+                break;
+            pos++;
+        }
+        sb.setLength(0);
+        sb.append(line, start, pos);
+        while (pos < line.length()) {
+            char c = line.charAt(pos++);
+            if ('"' == c)
+                return sb.toString();
+            if ('\\' != c) {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= line.length())
+                break;
+            c = line.charAt(pos++);
+            switch (c) {
+            case 'b': sb.append('\b'); break;
+            case 'f': sb.append('\f'); break;
+            case 'n': sb.append('\n'); break;
+            case 'r': sb.append('\r'); break;
+            case 't': sb.append('\t'); break;
+            case 'u':
+                if (pos + 4 > line.length())
+                    throw new ParseException("Bad unicode escape at " + pos, pos);
+                sb.append((char)Integer.parseInt(line.substring(pos, pos + 4), 16));
+                pos += 4;
+                break;
+            default: sb.append(c); break;
+            }
+        }
+        throw new ParseException("Unterminated string at " + start, start);
+    }
+
+    private void skipValue() throws ParseException {
+        char c = peek();
+        if ('"' == c) {
+            readString();
+            return;
+        }
+        if (('{' == c) || ('[' == c)) {
+            int depth = 0;
+            while (pos < line.length()) {
+                c = peek();
+                if ('"' == c) {
+                    readString();
+                    continue;
+                }
+                pos++;
+                if (('{' == c) || ('[' == c))
+                    depth++;
+                else if (('}' == c) || (']' == c))
+                    if (0 == --depth)
+                        return;
+            }
+            throw new ParseException("Unterminated value", pos);
+        }
+        while ((pos < line.length()) && (',' != line.charAt(pos))
+               && ('}' != line.charAt(pos)))
+            pos++;
+    }
+
+    private boolean readLiteral(String lit) {
+        if (line.startsWith(lit, pos)) {
+            pos += lit.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while ((pos < line.length()) && Character.isWhitespace(line.charAt(pos)))
+            pos++;
+    }
+
+    private char peek() throws ParseException {
+        if (pos >= line.length())
+            throw new ParseException("Unexpected end of line", pos);
+        return line.charAt(pos);
+    }
+
+    private char next() throws ParseException {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char c) throws ParseException {
+        if (next() != c)
+            throw new ParseException("Expected " + c + " at " + (pos - 1), pos - 1);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A sparse index of the byte offset after every INTERVAL'th line of an
+// uncompressed input file, so that skipping rows can seek close to the
+// first line wanted instead of reading and decoding every line before
+// it.  Lines are counted the way BufferedReader.readLine() counts them.
+// The index is built on demand, only as far into the file as a seek
+// needs, and saved to a sidecar file in the index directory so that
+// later loads of the same file reuse (and extend) it.  The sidecar
+// remembers the file's length and modification time, and is thrown away
+// if either changed.  Chunks of a split file share one LineIndex, which
+// is kept until forget() or until the file's length or modification time
+// no longer match it.
+class LineIndex {
+    public static final long INTERVAL = 100000;
+    private static final int MAGIC = 0x4c494458; // "LIDX"
+    private static final int BUFSIZE = 1024 * 1024;
+    private static Map<String, LineIndex> indexes = new HashMap<String, LineIndex>();
+
+    private File file;
+    private File sidecar;
+    private long length;
+    private long modified;
+    // offsets.get(k) is the offset of the start of line (k+1)*INTERVAL+1
+    private List<Long> offsets = new ArrayList<Long>();
+    // How far we have scanned
+    private long scannedOffset = 0;
+    private long scannedLines = 0;
+    private boolean prevCR = false;
+
+    private LineIndex(File inFile, File inSidecar) {
+        file = inFile;
+        sidecar = inSidecar;
+        length = file.length();
+        modified = file.lastModified();
+        if (sidecar.isFile()) {
+            try {
+                load();
+            }
+            catch (IOException e) {
+                System.err.println("Ignoring line index " + sidecar + ": "
+                                   + e.getMessage());
+                offsets.clear();
+                scannedOffset = 0;
+                scannedLines = 0;
+                prevCR = false;
+            }
+        }
+    }
+
+    public static synchronized LineIndex forFile(File infile, File dir) {
+        String path = infile.getAbsolutePath();
+        LineIndex index = indexes.get(path);
+        if ((null == index) || (infile.length() != index.length)
+            || (infile.lastModified() != index.modified)) {
+            // New, or changed since we indexed it (e.g., a file with the
+            // same name showed up again with -watch)
+            index = new LineIndex(infile, new File(dir, infile.getName() + "."
+                                                   + Integer.toHexString(path.hashCode())
+                                                   + ".lineidx"));
+            indexes.put(path, index);
+        }
+        return index;
+    }
+
+    // Drops the index of a file we are done with (the sidecar stays)
+    public static synchronized void forget(File infile) {
+        indexes.remove(infile.getAbsolutePath());
+    }
+
+    // Returns {line, offset} for the last indexed line at or before line,
+    // where offset is where the line after it starts, or null if there is
+    // no such line
+    public synchronized long[] seek(long line) throws IOException {
+        long k = line / INTERVAL;
+        if (0 == k)
+            return null;
+        if ((offsets.size() < k) && (scannedOffset < length)) {
+            scan(k * INTERVAL);
+            try {
+                save();
+            }
+            catch (IOException e) {
+                System.err.println("Could not write line index " + sidecar
+                                   + ": " + e.getMessage());
+            }
+        }
+        int n = (int)Math.min(k, offsets.size());
+        if (0 == n)
+            return null;
+        return new long[] {n * INTERVAL, offsets.get(n - 1)};
+    }
+
+    // Scans until toLine lines have been counted (and past the \n of a
+    // \r\n that ends the last one), or to the end of the file
+    private void scan(long toLine) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(BUFSIZE);
+            while (((scannedLines < toLine) || prevCR)
+                   && (scannedOffset < length)) {
+                buf.clear();
+                int n = channel.read(buf, scannedOffset);
+                if (n <= 0)
+                    break;
+                byte[] arr = buf.array();
+                int i = 0;
+                while ((i < n) && ((scannedLines < toLine) || prevCR)) {
+                    byte c = arr[i++];
+                    if ('\n' == c) {
+                        if (prevCR) {
+                            // The line was counted at the \r, so move its
+                            // offset past the \n
+                            prevCR = false;
+                            int last = offsets.size() - 1;
+                            if ((0 <= last)
+                                && (offsets.get(last) == scannedOffset + i - 1))
+                                offsets.set(last, scannedOffset + i);
+                            continue;
+                        }
+                    }
+                    else if ('\r' == c) {
+                        prevCR = true;
+                    }
+                    else {
+                        prevCR = false;
+                        continue;
+                    }
+                    scannedLines++;
+                    if (0 == scannedLines % INTERVAL)
+                        offsets.add(scannedOffset + i);
+                }
+                scannedOffset += i;
+            }
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+        try {
+            if ((MAGIC != in.readInt()) || (INTERVAL != in.readLong()))
+                throw new IOException("not a line index");
+            if ((length != in.readLong()) || (modified != in.readLong()))
+                throw new IOException(file + " has changed");
+            scannedOffset = in.readLong();
+            scannedLines = in.readLong();
+            prevCR = in.readBoolean();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++)
+                offsets.add(in.readLong());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private void save() throws IOException {
+        File tmp = new File(sidecar.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(INTERVAL);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeLong(scannedOffset);
+            out.writeLong(scannedLines);
+            out.writeBoolean(prevCR);
+            out.writeInt(offsets.size());
+            for (Long offset : offsets)
+                out.writeLong(offset);
+        }
+        finally {
+            out.close();
+        }
+        try {
+            Files.move(tmp.toPath(), sidecar.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), sidecar.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Reader -> parser -> submitter pipeline for line-oriented input.
+// A reader thread reads blocks of lines and hands them to a pool of
+// parser threads (each with its own CqlDelimParser) through a bounded
+// queue.  The same blocks are also put, in file order, on a second
+// bounded queue that the submitting thread drains with next(), so rows
+// are still sent and errors are still reported in file order.
+class LoadPipeline {
+    public static final int BLOCK_SIZE = 512;
+
+    private BufferedReader reader;
+    private List<CqlDelimParser> parsers;
+    private boolean json;
+    private long lineNumber;
+    private long firstLine;
+    private long lastLine;
+    private BlockingQueue<Block> parseQueue;
+    private BlockingQueue<Block> orderQueue;
+    private ExecutorService executor;
+    private volatile boolean stopped = false;
+
+    // statistics
+    private AtomicLong readBusyNanos = new AtomicLong(0);
+    private AtomicLong readBlockedNanos = new AtomicLong(0);
+    private AtomicLong parseBusyNanos = new AtomicLong(0);
+    private AtomicLong parseIdleNanos = new AtomicLong(0);
+    private long submitBusyNanos = 0;
+    private long submitWaitNanos = 0;
+    private long lastNext = -1;
+    private long numBlocks = 0;
+    private long parseDepthSum = 0;
+    private long parseDepthMax = 0;
+    private long orderDepthSum = 0;
+    private long orderDepthMax = 0;
+
+    // A block of lines, and (once parsed) the values for each line.
+    // A null values entry means the line did not parse.
+    public static class Block {
+        private String[] lines;
+        private long[] lineNumbers;
+        private Object[][] values;
+        private int size = 0;
+        private CountDownLatch parsed = new CountDownLatch(1);
+        private IOException exception = null;
+        private RuntimeException parseException = null;
+        private boolean last = false;
+
+        Block(int capacity) {
+            lines = new String[capacity];
+            lineNumbers = new long[capacity];
+            values = new Object[capacity][];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String getLine(int i) {
+            return lines[i];
+        }
+
+        public long getLineNumber(int i) {
+            return lineNumbers[i];
+        }
+
+        public Object[] getValues(int i) {
+            return values[i];
+        }
+    }
+
+    // Lines numbered before inFirstLine are skipped, and reading stops
+    // after inLastLine.  inLineNumber is the number of the line before
+    // the first line of the reader.
+    public LoadPipeline(BufferedReader inReader, List<CqlDelimParser> inParsers,
+                        boolean inJson, long inLineNumber,
+                        long inFirstLine, long inLastLine) {
+        reader = inReader;
+        parsers = inParsers;
+        json = inJson;
+        lineNumber = inLineNumber;
+        firstLine = inFirstLine;
+        lastLine = inLastLine;
+        int queueSize = 4 * parsers.size();
+        parseQueue = new ArrayBlockingQueue<Block>(queueSize);
+        orderQueue = new ArrayBlockingQueue<Block>(queueSize);
+    }
+
+    public void start() {
+        executor = Executors.newFixedThreadPool(parsers.size() + 1);
+        executor.submit(new Runnable() {
+                public void run() {
+                    read();
+                }
+            });
+        for (final CqlDelimParser cdp : parsers) {
+            executor.submit(new Runnable() {
+                    public void run() {
+                        parse(cdp);
+                    }
+                });
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+        if (null != executor)
+            executor.shutdownNow();
+    }
+
+    // Number of the last line read (including skipped lines)
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    // The next parsed block in file order, or null at the end of input
+    public Block next() throws IOException, InterruptedException {
+        long now = System.nanoTime();
+        if (-1 != lastNext)
+            submitBusyNanos += now - lastNext;
+        int pdepth = parseQueue.size();
+        int odepth = orderQueue.size();
+        parseDepthSum += pdepth;
+        orderDepthSum += odepth;
+        parseDepthMax = Math.max(parseDepthMax, pdepth);
+        orderDepthMax = Math.max(orderDepthMax, odepth);
+        numBlocks++;
+
+        Block block = orderQueue.take();
+        if (null != block.exception)
+            throw block.exception;
+        if (block.last)
+            return null;
+        block.parsed.await();
+        // Thrown by a parser thread, as it would have been on ours
+        if (null != block.parseException)
+            throw block.parseException;
+        lastNext = System.nanoTime();
+        submitWaitNanos += lastNext - now;
+        return block;
+    }
+
+    private void read() {
+        Block block = new Block(BLOCK_SIZE);
+        try {
+            String line;
+            long start = System.nanoTime();
+            while (!stopped && (null != (line = reader.readLine()))) {
+                lineNumber++;
+                if (lineNumber < firstLine)
+                    continue;
+                if (lineNumber > lastLine)
+                    break;
+                if (0 == line.trim().length())
+                    continue;
+                block.lines[block.size] = line;
+                block.lineNumbers[block.size] = lineNumber;
+                block.size++;
+                if (BLOCK_SIZE == block.size) {
+                    readBusyNanos.addAndGet(System.nanoTime() - start);
+                    start = System.nanoTime();
+                    publish(block);
+                    readBlockedNanos.addAndGet(System.nanoTime() - start);
+                    block = new Block(BLOCK_SIZE);
+                    start = System.nanoTime();
+                }
+            }
+            readBusyNanos.addAndGet(System.nanoTime() - start);
+            if (0 < block.size)
+                publish(block);
+            block = new Block(0);
+        }
+        catch (IOException e) {
+            block = new Block(0);
+            block.exception = e;
+        }
+        catch (InterruptedException e) {
+            return;
+        }
+        // Once stopped nobody takes from orderQueue, and the reader may
+        // have been closed (or interrupted) under us
+        if (stopped)
+            return;
+        block.last = true;
+        try {
+            orderQueue.put(block);
+        }
+        catch (InterruptedException e) {
+        }
+    }
+
+    private void publish(Block block) throws InterruptedException {
+        orderQueue.put(block);
+        parseQueue.put(block);
+    }
+
+    private void parse(CqlDelimParser cdp) {
+        try {
+            while (!stopped) {
+                long start = System.nanoTime();
+                Block block = parseQueue.take();
+                long got = System.nanoTime();
+                parseIdleNanos.addAndGet(got - start);
+                try {
+                    for (int i = 0; i < block.size; i++) {
+                        List<Object> elements = json ? cdp.parseJson(block.lines[i])
+                            : cdp.parse(block.lines[i]);
+                        // The parser reuses its list, so take a copy
+                        block.values[i] = (null == elements) ? null
+                            : elements.toArray();
+                    }
+                }
+                catch (RuntimeException e) {
+                    // e.g., univocity's TextParsingException on a field
+                    // longer than -charsPerColumn
+                    block.parseException = e;
+                }
+                finally {
+                    block.parsed.countDown();
+                }
+                parseBusyNanos.addAndGet(System.nanoTime() - got);
+            }
+        }
+        catch (InterruptedException e) {
+        }
+    }
+
+    public String report() {
+        long blocks = Math.max(1, numBlocks);
+        return String.format("read busy %d ms (blocked %d ms), "
+                             + "parse busy %d ms (idle %d ms) over %d threads, "
+                             + "submit busy %d ms (waiting %d ms), "
+                             + "parse queue depth avg %.1f max %d, "
+                             + "order queue depth avg %.1f max %d",
+                             readBusyNanos.get() / 1000000,
+                             readBlockedNanos.get() / 1000000,
+                             parseBusyNanos.get() / 1000000,
+                             parseIdleNanos.get() / 1000000,
+                             parsers.size(),
+                             submitBusyNanos / 1000000,
+                             submitWaitNanos / 1000000,
+                             (double)parseDepthSum / blocks, parseDepthMax,
+                             (double)orderDepthSum / blocks, orderDepthMax);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// Reads lines from a memory-mapped, uncompressed file.  Line breaks are
+// found by scanning the mapped bytes, and each line is copied out and
+// decoded once, instead of going through InputStreamReader and then
+// BufferedReader.  This is not zero-copy: lines are still handed out as
+// Strings, since the parsers, bad-line and log paths all want the text.
+// What it does give is byte offsets, so a [start, end) range or a
+// checkpoint can be read on its own.  Speed-wise (LineReaderBenchmark)
+// it is about 20% faster than BufferedReader for 400-character lines
+// and no faster for 40-character ones.  The file is mapped in segments,
+// so files larger than 2GB work.  read() hands out the same decoded
+// lines, line breaks included, a line at a time; mark() is not supported.
+class MappedLineReader extends BufferedReader {
+    private static final long SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    private FileChannel channel;
+    private Charset charset;
+    private long end;
+    private long pos;
+    private MappedByteBuffer map = null;
+    private long mapStart = 0;
+    private int mapLen = 0;
+    private byte[] lineBytes = new byte[1024];
+    private ByteBuffer oneByte = ByteBuffer.allocate(1);
+    private String eol = null;
+    // What read() has left of the current line (with its line break)
+    private String pending = null;
+    private int pendingPos = 0;
+
+    public MappedLineReader(File infile, long inStart, long inEnd)
+        throws IOException {
+        super(new StringReader(""), 1);
+        RandomAccessFile raf = new RandomAccessFile(infile, "r");
+        try {
+            channel = raf.getChannel();
+            charset = Charset.defaultCharset();
+            pos = inStart;
+            end = inEnd;
+        }
+        catch (RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public MappedLineReader(File infile) throws IOException {
+        this(infile, 0, infile.length());
+    }
+
+    // We scan for \n and \r bytes, which only works if the default
+    // charset encodes them (and only them) as single bytes
+    public static boolean canMap(File infile) throws IOException {
+        if ((null == infile) || !infile.isFile() || CompressedInputStream.isCompressed(infile))
+            return false;
+        Charset cs = Charset.defaultCharset();
+        if ("UTF-8".equals(cs.name()))
+            return true;
+        return ((1.0 == cs.newEncoder().maxBytesPerChar())
+                && Arrays.equals(new byte[] {'\n', '\r'}, "\n\r".getBytes(cs)));
+    }
+
+    // Byte offset of the start of the next line (not counting what read()
+    // has left of the current one)
+    public long getPosition() {
+        return pos;
+    }
+
+    public String readLine() throws IOException {
+        if (null != pending) {
+            // Finish the line read() started (as with BufferedReader, an
+            // unread \n after a \r that read() returned is an empty line)
+            int textLen = pending.length() - eol.length();
+            String line = pending.substring(Math.min(pendingPos, textLen), textLen);
+            boolean rest = (pendingPos < pending.length());
+            pending = null;
+            if (rest)
+                return line;
+        }
+        return nextLine();
+    }
+
+    // Reads the next line, and sets eol to the line break after it
+    private String nextLine() throws IOException {
+        eol = "";
+        if (pos >= end)
+            return null;
+        while (true) {
+            if ((null == map) || (pos >= mapStart + mapLen))
+                remap();
+            int offset = (int)(pos - mapStart);
+            int i = offset;
+            while ((i < mapLen) && ('\n' != map.get(i)) && ('\r' != map.get(i)))
+                i++;
+            if ((i == mapLen) && (mapStart + mapLen < end)) {
+                // The line continues past this segment
+                if (0 == offset)
+                    throw new IOException("Line longer than " + SEGMENT_SIZE
+                                          + " bytes at offset " + pos);
+                remap();
+                continue;
+            }
+
+            int len = i - offset;
+            if (lineBytes.length < len)
+                lineBytes = new byte[Math.max(len, 2 * lineBytes.length)];
+            map.position(offset);
+            map.get(lineBytes, 0, len);
+            pos += len;
+            if (i < mapLen) {
+                pos++;
+                eol = "\n";
+                if ('\r' == map.get(i)) {
+                    eol = "\r";
+                    if ((pos < end)
+                        && ((i + 1 < mapLen) ? ('\n' == map.get(i + 1))
+                            : ('\n' == peek(pos)))) {
+                        pos++;
+                        eol = "\r\n";
+                    }
+                }
+            }
+            return new String(lineBytes, 0, len, charset);
+        }
+    }
+
+    private void remap() throws IOException {
+        mapStart = pos;
+        mapLen = (int)Math.min(SEGMENT_SIZE, end - pos);
+        map = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapLen);
+    }
+
+    private int peek(long at) throws IOException {
+        oneByte.clear();
+        if (1 != channel.read(oneByte, at))
+            return -1;
+        return oneByte.get(0);
+    }
+
+    // False at the end of the input
+    private boolean fill() throws IOException {
+        while ((null == pending) || (pendingPos == pending.length())) {
+            String line = nextLine();
+            if (null == line) {
+                pending = null;
+                return false;
+            }
+            pending = line + eol;
+            pendingPos = 0;
+        }
+        return true;
+    }
+
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        return pending.charAt(pendingPos++);
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (0 == len)
+            return 0;
+        if (!fill())
+            return -1;
+        int n = Math.min(len, pending.length() - pendingPos);
+        pending.getChars(pendingPos, pendingPos + n, cbuf, off);
+        pendingPos += n;
+        return n;
+    }
+
+    public long skip(long n) throws IOException {
+        if (n < 0)
+            throw new IllegalArgumentException("skip value is negative");
+        long skipped = 0;
+        while ((skipped < n) && fill()) {
+            int k = (int)Math.min(n - skipped, pending.length() - pendingPos);
+            pendingPos += k;
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    public boolean ready() throws IOException {
+        return ((null != pending) && (pendingPos < pending.length()))
+            || (pos < end);
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+    public void close() throws IOException {
+        map = null;
+        channel.close();
+        super.close();
+    }
+}
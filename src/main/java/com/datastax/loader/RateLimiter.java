@@ -18,18 +18,32 @@ package com.datastax.loader;
 import java.io.PrintStream;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Snapshot;
+import com.datastax.loader.futures.AdaptiveConcurrencyLimiter;
 
 public class RateLimiter {
     private com.google.common.util.concurrent.RateLimiter rateLimiter;
-    private AtomicLong numAcquires;
+    private LongAdder numAcquires;
+    private AtomicLong nextReport;
     private static long updateRate = 100000;
+    // Each thread only looks at the total after this many of its own
+    // acquires, so a report can be up to numThreads * checkEvery late
+    private static final long CHECKS_PER_UPDATE = 64;
+    private long checkEvery;
+    private ThreadLocal<long[]> sinceCheck = new ThreadLocal<long[]>() {
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
     private Timer timer;
     private PrintStream stream;
+    // Only touched while holding the lock on this, by the reporting thread
     private long lastVal;
     private long firstTime;
     private long lastTime;
+    private AdaptiveConcurrencyLimiter concurrencyLimiter = null;
 
     public RateLimiter(double inRate) {
         this(inRate, Long.MAX_VALUE);
@@ -41,21 +55,39 @@ public class RateLimiter {
 
     public RateLimiter(double inRate, long inUpdateRate,
                        Timer inTimer, PrintStream inStream) {
+        this(inRate, inUpdateRate, inTimer, inStream, null);
+    }
+
+    // The in-flight limit of inConcurrencyLimiter, if any, is reported
+    // along with the rate
+    public RateLimiter(double inRate, long inUpdateRate,
+                       Timer inTimer, PrintStream inStream,
+                       AdaptiveConcurrencyLimiter inConcurrencyLimiter) {
+        concurrencyLimiter = inConcurrencyLimiter;
         rateLimiter = com.google.common.util.concurrent.RateLimiter.create(inRate);
         updateRate = inUpdateRate;
+        checkEvery = Math.max(1, updateRate / CHECKS_PER_UPDATE);
         timer = inTimer;
         stream = inStream;
         if ((null != stream) && (null != timer)) {
             printHeader();
         }
-        numAcquires = new AtomicLong(0);
+        numAcquires = new LongAdder();
+        nextReport = new AtomicLong(updateRate);
         lastTime = System.currentTimeMillis();
         firstTime = lastTime;
         lastVal = 0;
     }
 
     protected void printHeader() {
-        stream.println("Count,Min,Max,Mean,StdDev,50th,75th,95th,98th,99th,999th,MeanRate,1MinuteRate,5MinuteRate,15MinuteRate");
+        stream.println("Count,Min,Max,Mean,StdDev,50th,75th,95th,98th,99th,999th,MeanRate,1MinuteRate,5MinuteRate,15MinuteRate"
+                       + ((null == concurrencyLimiter) ? "" : ",InFlightLimit"));
+    }
+
+    private String limitString() {
+        if (null == concurrencyLimiter)
+            return "";
+        return "  In-flight limit: " + concurrencyLimiter.getLimit();
     }
 
     protected void printStats() {
@@ -76,10 +108,12 @@ public class RateLimiter {
                                      timer.getOneMinuteRate(),
                                      timer.getFiveMinuteRate(),
                                      timer.getFifteenMinuteRate())
+                       + ((null == concurrencyLimiter) ? ""
+                          : "," + concurrencyLimiter.getLimit())
                        );
     }
 
-    public void report(Long currentVal, Long currentTime) {
+    public synchronized void report(Long currentVal, Long currentTime) {
         if ((null != stream) && (null != timer)) {
             printStats();
             return;
@@ -89,10 +123,11 @@ public class RateLimiter {
         long etime = (currentTime - firstTime)/1000;
         double rateFromBeginning;
         if (null == currentVal) {
-            currentVal = numAcquires.get() - 1;
+            currentVal = numAcquires.sum() - 1;
             rateFromBeginning  = (etime > 0) ? (currentVal + 0.0) / etime : 0;
             System.err.println("Lines Processed: \t" + currentVal 
-                               + "  Rate: \t" + rateFromBeginning);
+                               + "  Rate: \t" + rateFromBeginning
+                               + limitString());
         }
         else {
             long ltime = (currentTime - lastTime)/1000;
@@ -102,18 +137,43 @@ public class RateLimiter {
                                + "  Rate: \t" + rateFromBeginning
                                + " (" + rateFromLast
                                + ")"
+                               + limitString()
                                );
         }
     }
 
-    protected synchronized void incrementAndReport(int permits) {
-        long currentVal = numAcquires.addAndGet(permits);
+    // Called by every loading thread for every row, so there is no lock
+    // here: the count is a LongAdder, which is only summed once a thread
+    // has done checkEvery acquires of its own, and the thread that moves
+    // nextReport past the boundary it crossed is the one that reports.
+    protected void incrementAndReport(int permits) {
+        numAcquires.add(permits);
+        long[] since = sinceCheck.get();
+        since[0] += permits;
+        if (since[0] < checkEvery)
+            return;
+        since[0] = 0;
+        long next = nextReport.get();
+        long currentVal = numAcquires.sum();
+        if ((currentVal >= next)
+            && nextReport.compareAndSet(next, nextBoundary(currentVal)))
+            reportSince(currentVal);
+    }
+
+    // Two boundaries can be crossed close together, so the reports are
+    // serialized, and one that lost the race to a later one is dropped
+    private synchronized void reportSince(long currentVal) {
+        if (currentVal <= lastVal)
+            return;
         long currentTime = System.currentTimeMillis();
-        if (permits > currentVal % updateRate) {
-            report(currentVal, currentTime);
-            lastTime = currentTime;
-            lastVal = currentVal;
-        }
+        report(currentVal, currentTime);
+        lastTime = currentTime;
+        lastVal = currentVal;
+    }
+
+    private long nextBoundary(long currentVal) {
+        long next = (currentVal / updateRate + 1) * updateRate;
+        return (next <= currentVal) ? Long.MAX_VALUE : next;
     }
 
     public void acquire() {
@@ -171,6 +231,6 @@ public class RateLimiter {
     }
 
     public long numAcquires() {
-        return numAcquires.get();
+        return numAcquires.sum();
     }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+// Measures the CPU time and heap allocation of the process between
+// start() and stop(), leaving out threads whose names start with a given
+// prefix (e.g., FakeCassandra's).  CPU is the whole process, so it
+// includes GC and JIT, less the left-out threads.  Allocation is only
+// known per live thread, so threads are sampled every SAMPLE_MS to count
+// those that finish before stop().  Both need the HotSpot
+// (com.sun.management) beans, and are reported as unknown without them.
+public class ResourceMeter implements Runnable {
+    public static final long SAMPLE_MS = 100;
+
+    private String excludePrefix;
+    private ThreadMXBean threadBean;
+    private com.sun.management.ThreadMXBean allocationBean = null;
+    private com.sun.management.OperatingSystemMXBean osBean = null;
+
+    // Thread id -> {first, last} sample
+    private Map<Long, long[]> allocated = new HashMap<Long, long[]>();
+    private Map<Long, long[]> excludedCpu = new HashMap<Long, long[]>();
+
+    private long startNanos;
+    private long stopNanos;
+    private long startCpu;
+    private long stopCpu;
+    private Thread sampler = null;
+    private volatile boolean running = false;
+
+    public ResourceMeter(String inExcludePrefix) {
+        excludePrefix = inExcludePrefix;
+        threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean.isThreadCpuTimeSupported())
+            threadBean.setThreadCpuTimeEnabled(true);
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+            if (allocationBean.isThreadAllocatedMemorySupported())
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+            else
+                allocationBean = null;
+        }
+        Object os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            osBean = (com.sun.management.OperatingSystemMXBean)os;
+    }
+
+    public void start() {
+        sample(true);
+        startCpu = processCpu();
+        startNanos = System.nanoTime();
+        running = true;
+        sampler = new Thread(this, excludePrefix + "-meter");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        sampler.interrupt();
+        sampler.join();
+        stopNanos = System.nanoTime();
+        stopCpu = processCpu();
+        sample(false);
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(SAMPLE_MS);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            sample(false);
+        }
+    }
+
+    public String report(long rows) {
+        double seconds = (stopNanos - startNanos) / 1000000000.0;
+        long perRow = Math.max(rows, 1);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d rows in %.3f seconds (%.0f rows/s)",
+                                rows, seconds, rows / seconds));
+        if ((0 <= startCpu) && (0 <= stopCpu)) {
+            long cpu = stopCpu - startCpu - total(excludedCpu);
+            sb.append(String.format(", %.2f us CPU/row (%.0f%% of a core)",
+                                    cpu / 1000.0 / perRow,
+                                    100.0 * cpu / (stopNanos - startNanos)));
+        }
+        else {
+            sb.append(", CPU unknown");
+        }
+        if (null != allocationBean) {
+            long bytes = total(allocated);
+            sb.append(String.format(", %.1f MB/s allocated (%d bytes/row)",
+                                    bytes / seconds / (1024 * 1024),
+                                    bytes / perRow));
+        }
+        else {
+            sb.append(", allocation unknown");
+        }
+        return sb.toString();
+    }
+
+    private long processCpu() {
+        return (null == osBean) ? -1 : osBean.getProcessCpuTime();
+    }
+
+    private synchronized void sample(boolean first) {
+        long[] ids = threadBean.getAllThreadIds();
+        ThreadInfo[] infos = threadBean.getThreadInfo(ids);
+        long[] bytes = (null == allocationBean) ? null
+            : allocationBean.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (null == infos[i])
+                continue;
+            if (infos[i].getThreadName().startsWith(excludePrefix))
+                update(excludedCpu, ids[i], threadBean.getThreadCpuTime(ids[i]),
+                       first);
+            else if (null != bytes)
+                update(allocated, ids[i], bytes[i], first);
+        }
+    }
+
+    // Threads first seen after start() count from zero
+    private static void update(Map<Long, long[]> samples, long id, long value,
+                               boolean first) {
+        if (0 > value)
+            return;
+        long[] s = samples.get(id);
+        if (null == s) {
+            s = new long[] {first ? value : 0, value};
+            samples.put(id, s);
+        }
+        s[1] = value;
+    }
+
+    private static long total(Map<Long, long[]> samples) {
+        long ret = 0;
+        for (long[] s : samples.values())
+            ret += s[1] - s[0];
+        return ret;
+    }
+}
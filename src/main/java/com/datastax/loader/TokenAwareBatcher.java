@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Statement;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Groups bound statements into UNLOGGED batches that all go to the same
+// partition (PARTITION) or the same set of replicas (REPLICA), so that
+// TokenAwarePolicy can send each batch straight to a replica.  A group
+// is sent when it reaches the batch size, when it has been open longer
+// than the flush interval, or when too many groups are open.  Ages are
+// only checked when the load task hands us a line (add() or expired()),
+// so while the input is stalled open groups wait for the next line or
+// the end of the input.
+class TokenAwareBatcher {
+    public enum Mode { ALL, PARTITION, REPLICA }
+
+    public static final int MAX_GROUPS = 1000;
+    private static final Object NO_KEY = new Object();
+
+    private Mode mode;
+    private int batchSize;
+    private long flushNanos;
+    private Metadata metadata;
+    private ProtocolVersion protocolVersion;
+    private CodecRegistry codecRegistry;
+    // getReplicas() wants the keyspace as it would appear in CQL
+    private String quotedKeyspace = null;
+    // insertion order, so the oldest group is always first
+    private Map<Object, Group> groups = new LinkedHashMap<Object, Group>();
+    private List<Group> ready = new ArrayList<Group>();
+
+    public static class Group {
+        private BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        private BoundStatement first;
+        private StringBuilder lines = new StringBuilder();
+        private long created = System.nanoTime();
+
+        void add(BoundStatement bind, String line) {
+            if (null == first)
+                first = bind;
+            batch.add(bind);
+            lines.append("\n").append(line);
+        }
+
+        public int size() {
+            return batch.size();
+        }
+
+        // A group of one is sent as a plain statement
+        public Statement getStatement() {
+            return (1 == batch.size()) ? first : batch;
+        }
+
+        public String getLines() {
+            return lines.toString();
+        }
+    }
+
+    public TokenAwareBatcher(Mode inMode, int inBatchSize, long inFlushMs,
+                             Cluster cluster) {
+        mode = inMode;
+        batchSize = inBatchSize;
+        flushNanos = inFlushMs * 1000000L;
+        metadata = cluster.getMetadata();
+        protocolVersion = cluster.getConfiguration().getProtocolOptions()
+            .getProtocolVersion();
+        codecRegistry = cluster.getConfiguration().getCodecRegistry();
+    }
+
+    public static Mode getMode(String mode) {
+        for (Mode m : Mode.values())
+            if (m.name().equalsIgnoreCase(mode))
+                return m;
+        return null;
+    }
+
+    // Adds the statement and returns the groups that are ready to be
+    // sent.  The returned list is reused by the next call.
+    public List<Group> add(BoundStatement bind, String line) {
+        ready.clear();
+        Object key = groupKey(bind);
+        Group group = groups.get(key);
+        if (null == group) {
+            group = new Group();
+            groups.put(key, group);
+        }
+        group.add(bind, line);
+        if (batchSize <= group.size()) {
+            groups.remove(key);
+            ready.add(group);
+        }
+        expire();
+        return ready;
+    }
+
+    // Returns the groups that have been open longer than the flush
+    // interval, for lines that add no row (skipped, blank or bad lines).
+    // The returned list is reused by the next call.
+    public List<Group> expired() {
+        ready.clear();
+        expire();
+        return ready;
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        Iterator<Group> iter = groups.values().iterator();
+        while (iter.hasNext()) {
+            Group g = iter.next();
+            if ((now - g.created < flushNanos) && (groups.size() <= MAX_GROUPS))
+                break;
+            iter.remove();
+            ready.add(g);
+        }
+    }
+
+    // Returns all open groups
+    public List<Group> flush() {
+        ready.clear();
+        ready.addAll(groups.values());
+        groups.clear();
+        return ready;
+    }
+
+    private Object groupKey(BoundStatement bind) {
+        ByteBuffer routingKey = bind.getRoutingKey(protocolVersion, codecRegistry);
+        if (null == routingKey)
+            return NO_KEY;
+        if (Mode.REPLICA == mode) {
+            if (null == quotedKeyspace)
+                quotedKeyspace = Metadata.quote(bind.getKeyspace());
+            return metadata.getReplicas(quotedKeyspace, routingKey);
+        }
+        return routingKey;
+    }
+}
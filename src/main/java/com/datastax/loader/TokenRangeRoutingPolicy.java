@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.StatementWrapper;
+import com.datastax.driver.core.policies.ChainableLoadBalancingPolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+// A token range query (WHERE Token(pk) > ? AND Token(pk) <= ?) has no
+// routing key, so TokenAwarePolicy cannot send it to a replica.  Wrap the
+// statement in a RangeStatement carrying the replicas of its range, and
+// this policy tries the local replicas that are up first, then falls back
+// to the child policy's plan.
+public class TokenRangeRoutingPolicy implements ChainableLoadBalancingPolicy {
+    private LoadBalancingPolicy childPolicy;
+
+    public TokenRangeRoutingPolicy(LoadBalancingPolicy inChildPolicy) {
+        childPolicy = inChildPolicy;
+    }
+
+    public static class RangeStatement extends StatementWrapper {
+        private Set<Host> replicas;
+
+        public RangeStatement(Statement inStatement, Set<Host> inReplicas) {
+            super(inStatement);
+            replicas = inReplicas;
+        }
+
+        public Set<Host> getReplicas() {
+            return replicas;
+        }
+    }
+
+    public LoadBalancingPolicy getChildPolicy() {
+        return childPolicy;
+    }
+
+    public void init(Cluster cluster, Collection<Host> hosts) {
+        childPolicy.init(cluster, hosts);
+    }
+
+    public HostDistance distance(Host host) {
+        return childPolicy.distance(host);
+    }
+
+    public Iterator<Host> newQueryPlan(String loggedKeyspace,
+                                       Statement statement) {
+        Iterator<Host> childPlan = childPolicy.newQueryPlan(loggedKeyspace,
+                                                            statement);
+        if (!(statement instanceof RangeStatement))
+            return childPlan;
+        Set<Host> replicas = ((RangeStatement)statement).getReplicas();
+        List<Host> plan = new ArrayList<Host>();
+        for (Host host : replicas) {
+            if (host.isUp() && (HostDistance.LOCAL == distance(host)))
+                plan.add(host);
+        }
+        // Spread the ranges of a replica set across its replicas
+        Collections.shuffle(plan, ThreadLocalRandom.current());
+        while (childPlan.hasNext()) {
+            Host host = childPlan.next();
+            if (!plan.contains(host))
+                plan.add(host);
+        }
+        return plan.iterator();
+    }
+
+    public void onAdd(Host host) {
+        childPolicy.onAdd(host);
+    }
+
+    public void onUp(Host host) {
+        childPolicy.onUp(host);
+    }
+
+    public void onDown(Host host) {
+        childPolicy.onDown(host);
+    }
+
+    public void onRemove(Host host) {
+        childPolicy.onRemove(host);
+    }
+
+    public void close() {
+        childPolicy.close();
+    }
+}
@@ -15,7 +15,10 @@ public abstract class AbstractFutureManager implements FutureManager {
         maxInsertErrors = inMaxInsertErrors;
     }
 
-    public abstract boolean add(ResultSetFuture future, String line);
+    public abstract boolean acquire();
+
+    public abstract boolean add(ResultSetFuture future, String line,
+                                long sendNanos);
 
     public abstract boolean cleanup();
 
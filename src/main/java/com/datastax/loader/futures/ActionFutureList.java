@@ -22,7 +22,12 @@ public class ActionFutureList extends AbstractFutureManager {
         numInserted = 0;
     }
     
-    public boolean add(ResultSetFuture future, String line) {
+    // Room is made in add(), by waiting for the futures we have
+    public boolean acquire() {
+        return true;
+    }
+
+    public boolean add(ResultSetFuture future, String line, long sendNanos) {
         if (futures.size() >= size) {
             if (!purgeFutures())
                 return false;
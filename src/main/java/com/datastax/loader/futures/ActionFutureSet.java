@@ -17,36 +17,69 @@ public class ActionFutureSet extends AbstractFutureManager {
     protected Semaphore available;
     protected AtomicLong insertErrors;
     protected AtomicLong numInserted;
+    protected AdaptiveConcurrencyLimiter limiter = null;
 
     public ActionFutureSet(int inSize, long inQueryTimeout, 
                            long inMaxInsertErrors, 
                            FutureAction inFutureAction) {
-        super(inSize, inQueryTimeout, inMaxInsertErrors);
+        this(inSize, inQueryTimeout, inMaxInsertErrors, inFutureAction, null);
+    }
+
+    // With a limiter, the number in flight is governed by the (shared)
+    // limiter; our own semaphore only bounds it by the limiter's maximum
+    public ActionFutureSet(int inSize, long inQueryTimeout, 
+                           long inMaxInsertErrors, 
+                           FutureAction inFutureAction,
+                           AdaptiveConcurrencyLimiter inLimiter) {
+        super((null == inLimiter) ? inSize : inLimiter.getMaxLimit(),
+              inQueryTimeout, inMaxInsertErrors);
         futureAction = inFutureAction;
+        limiter = inLimiter;
         available = new Semaphore(size, true);
         insertErrors = new AtomicLong(0);
         numInserted = new AtomicLong(0);
     }
 
-    public boolean add(ResultSetFuture future, final String line) {
+    // Called before the request is sent, so that the limit bounds what is
+    // in flight, and time spent waiting here is not counted as latency
+    public boolean acquire() {
         if (maxInsertErrors <= insertErrors.get())
             return false;
+        try {
+            if (null != limiter)
+                limiter.acquire();
+        }
+        catch (InterruptedException e) {
+            return false;
+        }
         try {
             available.acquire();
         }
         catch (InterruptedException e) {
+            if (null != limiter)
+                limiter.cancel();
             return false;
         }
+        return true;
+    }
+
+    public boolean add(ResultSetFuture future, final String line,
+                       final long start) {
         Futures.addCallback(future, new FutureCallback<ResultSet>() {
                 @Override
                 public void onSuccess(ResultSet rs) {
                     available.release();
+                    if (null != limiter)
+                        limiter.release(System.nanoTime() - start, false);
                     numInserted.incrementAndGet();
                     futureAction.onSuccess(rs, line);
                 }
                 @Override
                 public void onFailure(Throwable t) {
                     available.release();
+                    if (null != limiter)
+                        limiter.release(System.nanoTime() - start,
+                                        AdaptiveConcurrencyLimiter.isDrop(t));
                     long numErrors = insertErrors.incrementAndGet();
                     futureAction.onFailure(t, line);
                     if (maxInsertErrors <= numErrors) {
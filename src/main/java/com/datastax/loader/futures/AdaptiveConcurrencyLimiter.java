@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader.futures;
+
+import com.datastax.driver.core.exceptions.BusyPoolException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A limit on the number of requests in flight, shared by all of the
+// loading threads.  The limit adapts to the cluster with a gradient
+// algorithm: every sample window we compare the average latency in the
+// window to the lowest latency we have seen.  While they are close the
+// limit grows (by about the square root of the limit); as latency rises
+// the limit shrinks in proportion.  Timeouts and Overloaded errors cut
+// the limit multiplicatively, at most once per window.
+public class AdaptiveConcurrencyLimiter {
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.5;
+    private static final double BACKOFF = 0.9;
+    // The lowest latency is forgotten slowly, so that a change in the
+    // cluster (or a lucky early sample) does not pin the limit forever
+    private static final int MIN_RTT_RESET_WINDOWS = 1000;
+
+    private int minLimit;
+    private int maxLimit;
+    private volatile double limit;
+    private AtomicInteger inFlight = new AtomicInteger(0);
+    private AtomicInteger waiters = new AtomicInteger(0);
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition notFull = lock.newCondition();
+
+    private AtomicLong sampleNanos = new AtomicLong(0);
+    private AtomicLong sampleCount = new AtomicLong(0);
+    private AtomicBoolean dropped = new AtomicBoolean(false);
+    private AtomicBoolean updating = new AtomicBoolean(false);
+    private volatile long windowStart = System.nanoTime();
+    private long minRtt = Long.MAX_VALUE;
+    private int windows = 0;
+
+    public AdaptiveConcurrencyLimiter(int inInitialLimit, int inMinLimit,
+                                      int inMaxLimit) {
+        minLimit = Math.max(1, inMinLimit);
+        maxLimit = Math.max(minLimit, inMaxLimit);
+        limit = Math.min(maxLimit, Math.max(minLimit, inInitialLimit));
+    }
+
+    public int getLimit() {
+        return (int)limit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public void acquire() throws InterruptedException {
+        while (true) {
+            int cur = inFlight.get();
+            if (cur < (int)limit) {
+                if (inFlight.compareAndSet(cur, cur + 1))
+                    return;
+                continue;
+            }
+            waiters.incrementAndGet();
+            lock.lock();
+            try {
+                while (inFlight.get() >= (int)limit)
+                    notFull.await(10, TimeUnit.MILLISECONDS);
+            }
+            finally {
+                lock.unlock();
+                waiters.decrementAndGet();
+            }
+        }
+    }
+
+    // Gives back a permit from acquire() that was not used to send a
+    // request, without a latency sample
+    public void cancel() {
+        inFlight.decrementAndGet();
+        signalWaiter();
+    }
+
+    // Called when a request finishes.  latencyNanos is how long it was in
+    // flight; isDrop says it failed because the cluster is overloaded.
+    public void release(long latencyNanos, boolean isDrop) {
+        inFlight.decrementAndGet();
+        if (isDrop) {
+            dropped.set(true);
+        }
+        else {
+            sampleNanos.addAndGet(latencyNanos);
+            sampleCount.incrementAndGet();
+        }
+        long now = System.nanoTime();
+        if ((now - windowStart >= WINDOW_NANOS)
+            && updating.compareAndSet(false, true)) {
+            try {
+                update(now);
+            }
+            finally {
+                updating.set(false);
+            }
+        }
+        signalWaiter();
+    }
+
+    private void signalWaiter() {
+        if (0 < waiters.get()) {
+            lock.lock();
+            try {
+                notFull.signal();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void update(long now) {
+        boolean drop = dropped.getAndSet(false);
+        long count = sampleCount.get();
+        if (!drop && (MIN_WINDOW_SAMPLES > count))
+            return;
+        long nanos = sampleNanos.getAndSet(0);
+        count = sampleCount.getAndSet(0);
+        windowStart = now;
+
+        double newLimit = limit;
+        if (drop) {
+            newLimit = limit * BACKOFF;
+        }
+        else if (0 < count) {
+            long rtt = nanos / count;
+            if (++windows >= MIN_RTT_RESET_WINDOWS) {
+                windows = 0;
+                minRtt = rtt;
+            }
+            minRtt = Math.min(minRtt, rtt);
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minRtt / rtt));
+            double queueSize = Math.sqrt(limit);
+            newLimit = limit * gradient + queueSize;
+            newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            // Only grow if we are actually using the window
+            if ((newLimit > limit) && (inFlight.get() < limit / 2))
+                newLimit = limit;
+        }
+        limit = Math.min(maxLimit, Math.max(minLimit, newLimit));
+    }
+
+    // Whether the failure means the cluster is overloaded
+    public static boolean isDrop(Throwable t) {
+        while (null != t) {
+            if ((t instanceof OverloadedException)
+                || (t instanceof OperationTimedOutException)
+                || (t instanceof WriteTimeoutException)
+                || (t instanceof ReadTimeoutException)
+                || (t instanceof BusyPoolException))
+                return true;
+            if (t instanceof NoHostAvailableException) {
+                for (Throwable e : ((NoHostAvailableException)t).getErrors().values())
+                    if (isDrop(e))
+                        return true;
+                return false;
+            }
+            if (t == t.getCause())
+                break;
+            t = t.getCause();
+        }
+        return false;
+    }
+}
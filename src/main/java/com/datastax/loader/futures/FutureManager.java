@@ -3,7 +3,13 @@ package com.datastax.loader.futures;
 import com.datastax.driver.core.ResultSetFuture;
 
 public interface FutureManager {
-    public boolean add(ResultSetFuture future, String line);
+    // Makes room for one more request, before it is sent.  Returns false
+    // if we should stop sending (too many errors, or interrupted).
+    public boolean acquire();
+
+    // Tracks a request sent at sendNanos (System.nanoTime()), for which
+    // acquire() already made room
+    public boolean add(ResultSetFuture future, String line, long sendNanos);
 
     public boolean cleanup();
 
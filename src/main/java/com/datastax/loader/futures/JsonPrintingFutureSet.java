@@ -19,4 +19,14 @@ public class JsonPrintingFutureSet extends ActionFutureSet {
         super(inSize, inQueryTimeout, inMaxInsertErrors, 
               new JsonPrintingFutureAction(inLogPrinter, inBadInsertPrinter));
     }
+
+    public JsonPrintingFutureSet(int inSize, long inQueryTimeout, 
+                                 long inMaxInsertErrors, 
+                                 PrintStream inLogPrinter, 
+                                 PrintStream inBadInsertPrinter,
+                                 AdaptiveConcurrencyLimiter inLimiter) {
+        super(inSize, inQueryTimeout, inMaxInsertErrors, 
+              new JsonPrintingFutureAction(inLogPrinter, inBadInsertPrinter),
+              inLimiter);
+    }
 }
@@ -19,4 +19,14 @@ public class PrintingFutureSet extends ActionFutureSet {
         super(inSize, inQueryTimeout, inMaxInsertErrors, 
               new PrintingFutureAction(inLogPrinter, inBadInsertPrinter));
     }
+
+    public PrintingFutureSet(int inSize, long inQueryTimeout, 
+                             long inMaxInsertErrors, 
+                             PrintStream inLogPrinter, 
+                             PrintStream inBadInsertPrinter,
+                             AdaptiveConcurrencyLimiter inLimiter) {
+        super(inSize, inQueryTimeout, inMaxInsertErrors, 
+              new PrintingFutureAction(inLogPrinter, inBadInsertPrinter),
+              inLimiter);
+    }
 }
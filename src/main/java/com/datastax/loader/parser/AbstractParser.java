@@ -18,6 +18,8 @@ package com.datastax.loader.parser;
 import java.io.StringReader;
 import java.io.IOException;
 import java.text.ParseException;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.DataType;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.exceptions.InvalidTypeException;
 
@@ -37,6 +39,28 @@ public abstract class AbstractParser implements Parser {
         return parseIt(toparseit);
     }
 
+    // Parsers that can work directly on the buffer override this
+    public Object parse(char[] buf, int offset, int len) throws ParseException {
+        return parse(new String(buf, offset, len));
+    }
+
+    // Parsers for primitive types override this to use setInt(), etc.,
+    // so the value is never boxed
+    public void bind(char[] buf, int offset, int len, BoundStatement bs,
+                     int index) throws ParseException {
+        setObject(bs, index, parse(buf, offset, len));
+    }
+
+    // Sets a parsed value with the codec that bind(Object...) would use
+    public static void setObject(BoundStatement bs, int index, Object o) {
+        if (null == o) {
+            bs.setToNull(index);
+            return;
+        }
+        DataType type = bs.preparedStatement().getVariables().getType(index);
+        bs.set(index, o, bs.preparedStatement().getCodecRegistry().codecFor(type, o));
+    }
+
     public Object parse(IndexedLine il, String nullString, Character delim, 
                         Character escape, Character quote, boolean last)
         throws IOException, ParseException {
@@ -16,6 +16,7 @@
 package com.datastax.loader.parser;
 
 import java.text.ParseException;
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.exceptions.InvalidTypeException;
 
@@ -103,6 +104,38 @@ public class BooleanParser extends AbstractParser {
         throw new ParseException("Boolean was not TRUE (" + boolTrue + ") or FALSE (" + boolFalse + ")", 0);
     }
 
+    public Boolean parse(char[] buf, int offset, int len) throws ParseException {
+        if (regionMatches(boolTrue, buf, offset, len))
+            return Boolean.TRUE;
+        if (regionMatches(boolFalse, buf, offset, len))
+            return Boolean.FALSE;
+        return (Boolean)super.parse(buf, offset, len);
+    }
+
+    public void bind(char[] buf, int offset, int len, BoundStatement bs,
+                     int index) throws ParseException {
+        if (regionMatches(boolTrue, buf, offset, len))
+            bs.setBool(index, true);
+        else if (regionMatches(boolFalse, buf, offset, len))
+            bs.setBool(index, false);
+        else
+            bs.setBool(index, parse(buf, offset, len));
+    }
+
+    // Case-insensitive comparison of str with the buffer region
+    static boolean regionMatches(String str, char[] buf, int offset, int len) {
+        if (str.length() != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            char a = str.charAt(i);
+            char b = buf[offset + i];
+            if ((a != b) && (Character.toUpperCase(a) != Character.toUpperCase(b))
+                && (Character.toLowerCase(a) != Character.toLowerCase(b)))
+                return false;
+        }
+        return true;
+    }
+
     public String format(Object o) {
         Boolean v = (Boolean)o;
         if (v)
@@ -15,6 +15,7 @@
  */
 package com.datastax.loader.parser;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.exceptions.InvalidTypeException;
 import com.univocity.parsers.csv.CsvParser;
@@ -39,6 +40,8 @@ public class DelimParser {
     private List<Boolean> skip;
 
     private CsvParser csvp = null;
+    private FieldTokenizer tokenizer = null;
+    private ValueCache[] caches = null;
 
     public static String DEFAULT_DELIMITER = ",";
     public static String DEFAULT_NULLSTRING = "";
@@ -76,6 +79,13 @@ public class DelimParser {
         quote = '\"';
         escape = '\\';
 
+        csvp = new CsvParser(csvSettings(delim, quote, escape, comment,
+                                         charsPerColumn));
+    }
+
+    // The univocity settings, which FieldTokenizer has to agree with
+    static CsvParserSettings csvSettings(char delim, char quote, char escape,
+                                         char comment, int charsPerColumn) {
         CsvParserSettings settings = new CsvParserSettings();
         settings.getFormat().setLineSeparator("\n");
         settings.getFormat().setDelimiter(delim);
@@ -86,8 +96,7 @@ public class DelimParser {
         settings.setKeepQuotes(true);
         settings.setKeepEscapeSequences(true);
         settings.getFormat().setComment(comment);
-
-        csvp = new CsvParser(settings);
+        return settings;
     }
 
     // Adds a parser to the list
@@ -113,11 +122,195 @@ public class DelimParser {
         return trimmedToParse;
     }
 
+    // Use the allocation-free FieldTokenizer instead of univocity
+    public void setFastTokenizer(boolean fast) {
+        if (fast)
+            tokenizer = new FieldTokenizer(delim, quote, escape, comment,
+                                           charsPerColumn);
+        else
+            tokenizer = null;
+    }
+
+    // One cache (or null) per column bound by bind()
+    public void setValueCaches(ValueCache[] inCaches) {
+        caches = inCaches;
+    }
+
     public List<Object> parse(String line) {
         //return parseComplex(line);
+        if (null != tokenizer)
+            return parseWithTokenizer(line);
         return parseWithUnivocity(line);
     }
 
+    // Same results as parse(csvp.parseLine(line)), but unquoted fields
+    // are handed to the parsers as offsets into the tokenizer's buffer,
+    // so only the parsers that need a String (e.g., text) create one.
+    public List<Object> parseWithTokenizer(String line) {
+        int numFields = tokenizer.tokenize(line);
+        if (FieldTokenizer.UNSUPPORTED == numFields)
+            return parseWithUnivocity(line);
+        if (FieldTokenizer.COMMENT == numFields) {
+            System.err.println("Skipping comment line");
+            return null;
+        }
+        if (numFields != parsersSize) {
+            System.err.println("Row has different number of fields (" + numFields + ") than expected (" + parsersSize + ")");
+            return null;
+        }
+        char[] buf = tokenizer.getBuffer();
+        elements.clear();
+        Object toAdd;
+        for (int i = 0; i < parsersSize; i++) {
+            try {
+                int start = tokenizer.getStart(i);
+                int len = tokenizer.getLength(i);
+                if (0 == len) {
+                    toAdd = null;
+                }
+                else if (tokenizer.isQuoted(i)) {
+                    String toparse = tokenizer.getString(i);
+                    if ((null != nullString) &&
+                        (nullString.equalsIgnoreCase(AbstractParser.unquote(toparse))))
+                        toAdd = null;
+                    else
+                        toAdd = parsers.get(i).parse(toparse);
+                }
+                else if ((null != nullString) 
+                         && BooleanParser.regionMatches(nullString, buf, start, len)) {
+                    toAdd = null;
+                }
+                else {
+                    toAdd = parsers.get(i).parse(buf, start, len);
+                }
+
+                if (!skip.get(i))
+                    elements.add(toAdd);
+            }
+            catch (NumberFormatException e) {
+                System.err.println(String.format("Invalid number in input number %d: %s", i, e.getMessage()));
+                return null;
+            }
+            catch (ParseException pe) {
+                System.err.println(String.format("Invalid format in input %d: %s", i, pe.getMessage()));
+                return null;
+            }
+        }
+
+        return elements;
+    }
+
+    // Same values as parse(line), but each parser sets its column of the
+    // statement itself, so primitive columns are never boxed and no list
+    // is built.  Returns false if the line does not parse.
+    public boolean bind(String line, BoundStatement bs) {
+        if (null == tokenizer)
+            return bindWithUnivocity(line, bs);
+        int numFields = tokenizer.tokenize(line);
+        if (FieldTokenizer.UNSUPPORTED == numFields)
+            return bindWithUnivocity(line, bs);
+        if (FieldTokenizer.COMMENT == numFields) {
+            System.err.println("Skipping comment line");
+            return false;
+        }
+        if (numFields != parsersSize) {
+            System.err.println("Row has different number of fields (" + numFields + ") than expected (" + parsersSize + ")");
+            return false;
+        }
+        char[] buf = tokenizer.getBuffer();
+        int index = 0;
+        for (int i = 0; i < parsersSize; i++) {
+            if (skip.get(i))
+                continue;
+            try {
+                int start = tokenizer.getStart(i);
+                int len = tokenizer.getLength(i);
+                if (0 == len) {
+                    bs.setToNull(index);
+                }
+                else if (tokenizer.isQuoted(i)) {
+                    String toparse = tokenizer.getString(i);
+                    if ((null != nullString) &&
+                        (nullString.equalsIgnoreCase(AbstractParser.unquote(toparse))))
+                        bs.setToNull(index);
+                    else
+                        AbstractParser.setObject(bs, index, 
+                                                 parsers.get(i).parse(toparse));
+                }
+                else if ((null != nullString) 
+                         && BooleanParser.regionMatches(nullString, buf, start, len)) {
+                    bs.setToNull(index);
+                }
+                else if ((null != caches) && (null != caches[index])) {
+                    caches[index].bind(parsers.get(i), buf, start, len, bs,
+                                       index);
+                }
+                else {
+                    parsers.get(i).bind(buf, start, len, bs, index);
+                }
+                index++;
+            }
+            catch (NumberFormatException e) {
+                System.err.println(String.format("Invalid number in input number %d: %s", i, e.getMessage()));
+                return false;
+            }
+            catch (ParseException pe) {
+                System.err.println(String.format("Invalid format in input %d: %s", i, pe.getMessage()));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // bind() for lines univocity splits (no -fastTokenizer, or lines the
+    // tokenizer does not handle), still going through the value caches
+    private boolean bindWithUnivocity(String line, BoundStatement bs) {
+        if (null == caches)
+            return bind(parseWithUnivocity(line), bs);
+        String[] row = csvp.parseLine(line);
+        if (null == row)
+            return false;
+        if (row.length != parsersSize) {
+            System.err.println("Row has different number of fields (" + row.length + ") than expected (" + parsersSize + ")");
+            return false;
+        }
+        int index = 0;
+        for (int i = 0; i < parsersSize; i++) {
+            if (skip.get(i))
+                continue;
+            try {
+                String toparse = row[i];
+                if ((null == toparse) ||
+                    ((null != nullString) &&
+                     (nullString.equalsIgnoreCase(AbstractParser.unquote(toparse)))))
+                    bs.setToNull(index);
+                else if (null != caches[index])
+                    caches[index].bind(parsers.get(i), toparse, bs, index);
+                else
+                    AbstractParser.setObject(bs, index,
+                                             parsers.get(i).parse(toparse));
+                index++;
+            }
+            catch (NumberFormatException e) {
+                System.err.println(String.format("Invalid number in input number %d: %s", i, e.getMessage()));
+                return false;
+            }
+            catch (ParseException pe) {
+                System.err.println(String.format("Invalid format in input %d: %s", i, pe.getMessage()));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean bind(List<Object> values, BoundStatement bs) {
+        if (null == values)
+            return false;
+        for (int i = 0; i < values.size(); i++)
+            AbstractParser.setObject(bs, i, values.get(i));
+        return true;
+    }
+
     public List<Object> parseWithUnivocity(String line) {
         String[] row = csvp.parseLine(line);
         return parse(row);
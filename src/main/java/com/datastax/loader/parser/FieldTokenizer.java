@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader.parser;
+
+import java.util.Arrays;
+
+// Splits a delimited line into fields without allocating.  The line is
+// copied into a reused char buffer and each field is recorded as an
+// offset and length into that buffer, trimmed of surrounding whitespace
+// and with any quotes kept - the same field text the univocity parser
+// produces with keepQuotes and keepEscapeSequences.  Lines that this
+// simple scanner does not handle the same way (blank lines, unterminated
+// quotes, text after a closing quote, some whitespace after one,
+// over-long fields) are reported as UNSUPPORTED so the caller can fall
+// back to univocity.
+public class FieldTokenizer {
+    public static final int COMMENT = -1;
+    public static final int UNSUPPORTED = -2;
+
+    private char delim;
+    private char quote;
+    private char escape;
+    private char comment;
+    private int charsPerColumn;
+
+    private char[] buf = new char[1024];
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private int numFields = 0;
+
+    public FieldTokenizer(char inDelim, char inQuote, char inEscape,
+                          char inComment, int inCharsPerColumn) {
+        delim = inDelim;
+        quote = inQuote;
+        escape = inEscape;
+        comment = inComment;
+        charsPerColumn = inCharsPerColumn;
+    }
+
+    public char[] getBuffer() {
+        return buf;
+    }
+
+    public int getStart(int i) {
+        return starts[i];
+    }
+
+    public int getLength(int i) {
+        return lengths[i];
+    }
+
+    // Whether the field is quoted ("...")
+    public boolean isQuoted(int i) {
+        return (lengths[i] >= 2) && (quote == buf[starts[i]])
+            && (quote == buf[starts[i] + lengths[i] - 1]);
+    }
+
+    public String getString(int i) {
+        return new String(buf, starts[i], lengths[i]);
+    }
+
+    // Returns the number of fields, COMMENT, or UNSUPPORTED
+    public int tokenize(String line) {
+        int len = line.length();
+        if (buf.length < len)
+            buf = new char[Math.max(len, 2 * buf.length)];
+        line.getChars(0, len, buf, 0);
+        numFields = 0;
+        if ((0 < len) && (comment == buf[0]))
+            return COMMENT;
+
+        int pos = 0;
+        while (true) {
+            // skip leading whitespace
+            while ((pos < len) && isWhitespace(buf[pos]))
+                pos++;
+            int start = pos;
+            if ((pos < len) && (quote == buf[pos])) {
+                pos++;
+                boolean closed = false;
+                while (pos < len) {
+                    char c = buf[pos];
+                    if (escape == c) {
+                        pos += 2;
+                        continue;
+                    }
+                    pos++;
+                    if (quote == c) {
+                        closed = true;
+                        break;
+                    }
+                }
+                if (!closed || (pos > len))
+                    return UNSUPPORTED;
+                int end = pos;
+                while ((pos < len) && isWhitespace(buf[pos]))
+                    pos++;
+                if ((pos < len) && (delim != buf[pos]))
+                    return UNSUPPORTED;
+                // Whitespace after a closing quote trips univocity up: it
+                // swallows a whitespace delimiter (e.g., tab), and at the
+                // end of the line it drops the closing quote
+                if ((pos > end) && ((delim <= ' ') || (pos == len)))
+                    return UNSUPPORTED;
+                addField(start, end - start);
+            }
+            else {
+                while ((pos < len) && (delim != buf[pos]))
+                    pos++;
+                int end = pos;
+                while ((end > start) && isWhitespace(buf[end - 1]))
+                    end--;
+                addField(start, end - start);
+            }
+            if (lengths[numFields - 1] > charsPerColumn)
+                return UNSUPPORTED;
+            if (pos >= len)
+                break;
+            pos++; // the delimiter
+        }
+        // univocity skips blank lines (parseLine() returns null)
+        if ((1 == numFields) && (0 == lengths[0]))
+            return UNSUPPORTED;
+        return numFields;
+    }
+
+    private boolean isWhitespace(char c) {
+        return (c <= ' ') && (c != delim);
+    }
+
+    private void addField(int start, int length) {
+        if (numFields == starts.length) {
+            int n = 2 * numFields;
+            starts = Arrays.copyOf(starts, n);
+            lengths = Arrays.copyOf(lengths, n);
+        }
+        starts[numFields] = start;
+        lengths[numFields] = length;
+        numFields++;
+    }
+}
@@ -18,6 +18,7 @@ package com.datastax.loader.parser;
 import java.util.Locale;
 import java.text.ParseException;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.exceptions.InvalidTypeException;
 
@@ -36,7 +37,28 @@ public class FloatParser extends NumberParser {
     }
 
     public Float parseIt(String toparse) throws ParseException {
-        Number val = super.parseIt(toparse);
-        return (null == val) ? null : val.floatValue();
+        if (null == toparse)
+            return null;
+        double val = simpleDouble(toparse);
+        if (!Double.isNaN(val))
+            return (float)val;
+        Number num = super.parseIt(toparse);
+        return (null == num) ? null : num.floatValue();
+    }
+
+    public Float parse(char[] buf, int offset, int len) throws ParseException {
+        double val = simpleDouble(buf, offset, len);
+        if (!Double.isNaN(val))
+            return (float)val;
+        return (Float)super.parse(buf, offset, len);
+    }
+
+    public void bind(char[] buf, int offset, int len, BoundStatement bs,
+                     int index) throws ParseException {
+        double val = simpleDouble(buf, offset, len);
+        if (!Double.isNaN(val))
+            bs.setFloat(index, (float)val);
+        else
+            bs.setFloat(index, parse(buf, offset, len));
     }
 }
@@ -18,6 +18,7 @@ package com.datastax.loader.parser;
 import java.util.Locale;
 import java.text.ParseException;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.exceptions.InvalidTypeException;
 
@@ -36,7 +37,28 @@ public class LongParser extends NumberParser {
     }
     
     public Long parseIt(String toparse) throws ParseException {
-        Number val = super.parseIt(toparse);
-        return (null == val) ? null : val.longValue();
+        if (null == toparse)
+            return null;
+        long val = simpleLong(toparse);
+        if (NOT_SIMPLE != val)
+            return val;
+        Number num = super.parseIt(toparse);
+        return (null == num) ? null : num.longValue();
+    }
+
+    public Long parse(char[] buf, int offset, int len) throws ParseException {
+        long val = simpleLong(buf, offset, len);
+        if (NOT_SIMPLE != val)
+            return val;
+        return (Long)super.parse(buf, offset, len);
+    }
+
+    public void bind(char[] buf, int offset, int len, BoundStatement bs,
+                     int index) throws ParseException {
+        long val = simpleLong(buf, offset, len);
+        if (NOT_SIMPLE != val)
+            bs.setLong(index, val);
+        else
+            bs.setLong(index, parse(buf, offset, len));
     }
 }
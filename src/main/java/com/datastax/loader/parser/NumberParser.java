@@ -27,7 +27,15 @@ import com.datastax.driver.core.exceptions.InvalidTypeException;
 // This is useful as it can take care of Locales for us
 // That means comma as a decimal separator, etc.
 public class NumberParser extends AbstractParser {
+    protected static final long NOT_SIMPLE = Long.MIN_VALUE;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
     protected NumberFormat nf;
+    protected boolean decimalPoint = false;
+    private char[] scratch = new char[64];
     public NumberParser() {
         this(null);
     }
@@ -42,6 +50,8 @@ public class NumberParser extends AbstractParser {
         nf = NumberFormat.getInstance(locale);
         if (nf instanceof DecimalFormat) {
             ((DecimalFormat) nf).setGroupingUsed(grouping);
+            decimalPoint = ('.' == ((DecimalFormat) nf)
+                            .getDecimalFormatSymbols().getDecimalSeparator());
         }
     }
     
@@ -52,6 +62,87 @@ public class NumberParser extends AbstractParser {
         return nf.parse(toparse);
     }
 
+    // Parses an optionally negative run of digits without NumberFormat.
+    // Returns NOT_SIMPLE if there is anything else in the field or the
+    // value does not fit in a long, and the caller falls back to
+    // NumberFormat (which also handles grouping and Long.MIN_VALUE).
+    protected static long simpleLong(char[] buf, int offset, int len) {
+        int i = offset;
+        int end = offset + len;
+        boolean negative = (i < end) && ('-' == buf[i]);
+        if (negative)
+            i++;
+        if (i == end)
+            return NOT_SIMPLE;
+        long val = 0;
+        for (; i < end; i++) {
+            int digit = buf[i] - '0';
+            if ((digit < 0) || (digit > 9))
+                return NOT_SIMPLE;
+            if (val > (Long.MAX_VALUE - digit) / 10)
+                return NOT_SIMPLE;
+            val = val * 10 + digit;
+        }
+        return negative ? -val : val;
+    }
+
+    // Parses [-]digits[.digits] without NumberFormat when '.' is the
+    // decimal separator.  Up to 15 significant digits, the mantissa and
+    // the power of ten are exact doubles, so one division gives the
+    // correctly rounded value.  Longer values go to Double.parseDouble(),
+    // which is also correctly rounded.  Returns NaN for anything else.
+    protected double simpleDouble(char[] buf, int offset, int len) {
+        if (!decimalPoint)
+            return Double.NaN;
+        int i = offset;
+        int end = offset + len;
+        boolean negative = (i < end) && ('-' == buf[i]);
+        if (negative)
+            i++;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            char c = buf[i];
+            if (('.' == c) && !point) {
+                point = true;
+                continue;
+            }
+            if ((c < '0') || (c > '9'))
+                return Double.NaN;
+            if ((0 < mantissa) || ('0' != c))
+                digits++;
+            if (digits <= 15)
+                mantissa = mantissa * 10 + (c - '0');
+            if (point)
+                fractionDigits++;
+        }
+        int numChars = len - (negative ? 1 : 0) - (point ? 1 : 0);
+        if ((0 == numChars) || (point && (0 == fractionDigits)) 
+            || (point && (numChars == fractionDigits)))
+            return Double.NaN;
+        if ((15 < digits) || (22 < fractionDigits))
+            return Double.parseDouble(new String(buf, offset, len));
+        double val = (double)mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -val : val;
+    }
+
+    // Strings are copied into a scratch buffer for the methods above
+    protected long simpleLong(String s) {
+        if (s.length() > scratch.length)
+            return NOT_SIMPLE;
+        s.getChars(0, s.length(), scratch, 0);
+        return simpleLong(scratch, 0, s.length());
+    }
+
+    protected double simpleDouble(String s) {
+        if (s.length() > scratch.length)
+            return Double.NaN;
+        s.getChars(0, s.length(), scratch, 0);
+        return simpleDouble(scratch, 0, s.length());
+    }
+
     public String format(Object o) {
         return nf.format(o);
     }
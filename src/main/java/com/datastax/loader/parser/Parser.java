@@ -19,12 +19,18 @@ import java.text.ParseException;
 import java.io.StringReader;
 import java.io.IOException;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.exceptions.InvalidTypeException;
 
 // Parsing Interface - one method parse(String)
 public interface Parser {
     public Object parse(String toparse) throws ParseException;
+    // Parse a field held in a char buffer (see FieldTokenizer)
+    public Object parse(char[] buf, int offset, int len) throws ParseException;
+    // Parse a field held in a char buffer straight into the statement
+    public void bind(char[] buf, int offset, int len, BoundStatement bs,
+                     int index) throws ParseException;
     public Object parse(IndexedLine il, String nullString, Character delim, 
                         Character escape, Character quote, boolean last)
         throws IOException, ParseException;
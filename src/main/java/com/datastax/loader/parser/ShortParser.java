@@ -18,6 +18,7 @@ package com.datastax.loader.parser;
 import java.util.Locale;
 import java.text.ParseException;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.exceptions.InvalidTypeException;
 
@@ -36,7 +37,28 @@ public class ShortParser extends NumberParser {
     }
     
     public Short parseIt(String toparse) throws ParseException {
-        Number val = super.parseIt(toparse);
-        return (null == val) ? null : val.shortValue();
+        if (null == toparse)
+            return null;
+        long val = simpleLong(toparse);
+        if (NOT_SIMPLE != val)
+            return (short)val;
+        Number num = super.parseIt(toparse);
+        return (null == num) ? null : num.shortValue();
+    }
+
+    public Short parse(char[] buf, int offset, int len) throws ParseException {
+        long val = simpleLong(buf, offset, len);
+        if (NOT_SIMPLE != val)
+            return (short)val;
+        return (Short)super.parse(buf, offset, len);
+    }
+
+    public void bind(char[] buf, int offset, int len, BoundStatement bs,
+                     int index) throws ParseException {
+        long val = simpleLong(buf, offset, len);
+        if (NOT_SIMPLE != val)
+            bs.setShort(index, (short)val);
+        else
+            bs.setShort(index, parse(buf, offset, len));
     }
 }
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader.parser;
+
+import java.util.Date;
+import java.util.Locale;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.exceptions.InvalidTypeException;
+
+// Timestamp parser - a thread-safe replacement for DateParser built on
+// java.time.  ISO-8601 values (yyyy-MM-dd, T or a space, HH:mm[:ss[.SSS]],
+// then an optional Z or +hh:mm) are parsed by hand when there is no format
+// string.  With a format string, they are only parsed by hand if it is
+// one of those shapes exactly (see ISO_PATTERN), and then only values of
+// that shape.  Epoch milliseconds are accepted unless the format can
+// produce a value that is all digits (e.g., yyyyMMdd).  The start of each
+// date and hour is kept in a small cache, so most values are just
+// arithmetic.  Everything else goes through a precompiled
+// DateTimeFormatter.  With no format string, the pattern is the
+// SimpleDateFormat default, as in DateParser.
+public class TimestampParser extends AbstractParser {
+    private static final int CACHE_SIZE = 1024;
+    private static final long NOT_FAST = Long.MIN_VALUE;
+    // The format strings whose values parseIso() reads exactly as
+    // SimpleDateFormat does
+    private static final Pattern ISO_PATTERN
+        = Pattern.compile("yyyy-MM-dd(?:'T'| )HH:mm(:ss(\\.SSS)?)?(XXX)?");
+    // Pattern letters SimpleDateFormat always writes as digits
+    private static final String NUMERIC_LETTERS = "yMdHhkKmsSDFwWu";
+
+    // Immutable, so threads can share the cache without locking
+    private static class Hour {
+        final long key;
+        final long millis;
+        final long utcMillis;
+
+        Hour(long inKey, long inMillis, long inUtcMillis) {
+            key = inKey;
+            millis = inMillis;
+            utcMillis = inUtcMillis;
+        }
+    }
+
+    private final Hour[] hours = new Hour[CACHE_SIZE];
+    private final DateTimeFormatter formatter;
+    private final ZoneId zone;
+    private final boolean isoFastPath;
+    // With a format string, the shape values must have for parseIso()
+    private final boolean isoExact;
+    private final char isoSeparator;
+    private final boolean isoSeconds;
+    private final boolean isoMillis;
+    private final boolean isoOffset;
+    private final boolean epochFastPath;
+
+    public TimestampParser(String inFormatString) {
+        String pattern = inFormatString;
+        if (null == pattern)
+            pattern = new SimpleDateFormat().toPattern();
+        zone = ZoneId.systemDefault();
+        formatter = buildFormatter(pattern).withZone(zone);
+        Matcher m = ISO_PATTERN.matcher((null == inFormatString) ? ""
+                                        : inFormatString);
+        isoExact = m.matches();
+        isoFastPath = (null == inFormatString) || isoExact;
+        isoSeparator = (isoExact && (' ' == inFormatString.charAt(10)))
+            ? ' ' : 'T';
+        isoSeconds = isoExact && (null != m.group(1));
+        isoMillis = isoExact && (null != m.group(2));
+        isoOffset = isoExact && (null != m.group(3));
+        epochFastPath = !canBeAllDigits(pattern);
+    }
+
+    // Whether some value of the pattern is all digits, in which case an
+    // all-digits value may not be epoch milliseconds
+    static boolean canBeAllDigits(String pattern) {
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if ('\'' == c) {
+                // '' is a literal quote, in or out of quotes
+                if ((i + 1 < pattern.length()) && ('\'' == pattern.charAt(i + 1)))
+                    return false;
+                quoted = !quoted;
+                continue;
+            }
+            if (quoted || !(((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')))) {
+                if ((c < '0') || (c > '9'))
+                    return false;
+                continue;
+            }
+            if (0 > NUMERIC_LETTERS.indexOf(c))
+                return false;
+            int end = i;
+            while ((end < pattern.length()) && (c == pattern.charAt(end)))
+                end++;
+            // MMM and longer are month names
+            if (('M' == c) && (2 < end - i))
+                return false;
+            i = end - 1;
+        }
+        return true;
+    }
+
+    // Like appendPattern(pattern), except that two-digit years are read
+    // the way SimpleDateFormat reads them: within 80 years before and 20
+    // years after today.  Resolving is strict, so that a date such as
+    // Feb 29 2017 is an error rather than quietly becoming Feb 28 (strict
+    // resolving needs an era for yyyy, so AD is the default).
+    private static DateTimeFormatter buildFormatter(String pattern) {
+        DateTimeFormatterBuilder builder 
+            = new DateTimeFormatterBuilder().parseCaseInsensitive();
+        boolean quoted = false;
+        int from = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if ('\'' == c)
+                quoted = !quoted;
+            if (quoted || ('y' != c))
+                continue;
+            int end = i;
+            while ((end < pattern.length()) && ('y' == pattern.charAt(end)))
+                end++;
+            if (2 == end - i) {
+                builder.appendPattern(pattern.substring(from, i));
+                builder.appendValueReduced(ChronoField.YEAR, 2, 2,
+                                           LocalDate.now().minusYears(80));
+                from = end;
+            }
+            i = end - 1;
+        }
+        builder.appendPattern(pattern.substring(from));
+        builder.parseDefaulting(ChronoField.ERA, 1);
+        return builder.toFormatter(Locale.ENGLISH)
+            .withResolverStyle(ResolverStyle.STRICT);
+    }
+
+    public Date parseIt(String toparse) throws ParseException {
+        if (null == toparse)
+            return null;
+        if (isoFastPath) {
+            long millis = parseIso(toparse);
+            if (NOT_FAST != millis)
+                return new Date(millis);
+        }
+        if (epochFastPath && isEpoch(toparse))
+            return new Date(Long.parseLong(toparse));
+        try {
+            TemporalAccessor parsed = formatter.parse(toparse);
+            LocalDate date = parsed.query(TemporalQueries.localDate());
+            if (null == date)
+                throw new ParseException("No date in timestamp: " + toparse, 0);
+            LocalTime time = parsed.query(TemporalQueries.localTime());
+            if (null == time)
+                time = LocalTime.MIDNIGHT;
+            ZoneId z = parsed.query(TemporalQueries.zone());
+            if (null == z)
+                z = zone;
+            return Date.from(ZonedDateTime.of(date, time, z).toInstant());
+        }
+        catch (DateTimeException e) {
+            throw new ParseException(e.getMessage(), 0);
+        }
+    }
+
+    public void bind(char[] buf, int offset, int len, BoundStatement bs,
+                     int index) throws ParseException {
+        bs.setTimestamp(index, (Date)parse(buf, offset, len));
+    }
+
+    private static boolean isEpoch(String s) {
+        int i = ((0 < s.length()) && ('-' == s.charAt(0))) ? 1 : 0;
+        if ((i == s.length()) || (s.length() - i > 18))
+            return false;
+        for (; i < s.length(); i++)
+            if ((s.charAt(i) < '0') || (s.charAt(i) > '9'))
+                return false;
+        return true;
+    }
+
+    // Returns -1 if they are not all digits
+    private static int digits(String s, int offset, int len) {
+        int val = 0;
+        for (int i = offset; i < offset + len; i++) {
+            char c = s.charAt(i);
+            if ((c < '0') || (c > '9'))
+                return -1;
+            val = val * 10 + (c - '0');
+        }
+        return val;
+    }
+
+    private long parseIso(String s) {
+        int len = s.length();
+        if ((len < 16) || ('-' != s.charAt(4)) || ('-' != s.charAt(7))
+            || (('T' != s.charAt(10)) && (' ' != s.charAt(10)))
+            || (':' != s.charAt(13)))
+            return NOT_FAST;
+        if (isoExact && (isoSeparator != s.charAt(10)))
+            return NOT_FAST;
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        if ((0 > year) || (0 > month) || (0 > day) || (0 > hour)
+            || (0 > minute) || (23 < hour) || (59 < minute))
+            return NOT_FAST;
+        int pos = 16;
+        int second = 0;
+        int millis = 0;
+        if (isoExact && (isoSeconds != ((pos < len) && (':' == s.charAt(pos)))))
+            return NOT_FAST;
+        if ((pos < len) && (':' == s.charAt(pos))) {
+            if (len < pos + 3)
+                return NOT_FAST;
+            second = digits(s, pos + 1, 2);
+            if ((0 > second) || (59 < second))
+                return NOT_FAST;
+            pos += 3;
+            if (isoExact && (isoMillis != ((pos < len) && ('.' == s.charAt(pos)))))
+                return NOT_FAST;
+            if ((pos < len) && ('.' == s.charAt(pos))) {
+                int start = ++pos;
+                while ((pos < len) && (s.charAt(pos) >= '0')
+                       && (s.charAt(pos) <= '9')) {
+                    if (pos - start < 3)
+                        millis = millis * 10 + (s.charAt(pos) - '0');
+                    pos++;
+                }
+                if (start == pos)
+                    return NOT_FAST;
+                // SimpleDateFormat reads SSS as a number of milliseconds,
+                // so only three digits mean the same thing
+                if (isoExact && (3 != pos - start))
+                    return NOT_FAST;
+                for (int i = pos - start; i < 3; i++)
+                    millis *= 10;
+            }
+        }
+        boolean hasOffset = true;
+        long offsetMillis = 0;
+        if (pos == len) {
+            hasOffset = false;
+        }
+        else if (('Z' == s.charAt(pos)) && (pos + 1 == len)) {
+            offsetMillis = 0;
+        }
+        else if ((('+' == s.charAt(pos)) || ('-' == s.charAt(pos)))
+                 && (pos + 6 == len) && (':' == s.charAt(pos + 3))) {
+            int offsetHours = digits(s, pos + 1, 2);
+            int offsetMinutes = digits(s, pos + 4, 2);
+            if ((0 > offsetHours) || (0 > offsetMinutes))
+                return NOT_FAST;
+            offsetMillis = (offsetHours * 60L + offsetMinutes) * 60000L;
+            if ('-' == s.charAt(pos))
+                offsetMillis = -offsetMillis;
+        }
+        else {
+            return NOT_FAST;
+        }
+        if (isoExact && (isoOffset != hasOffset))
+            return NOT_FAST;
+        Hour start = hour(year, month, day, hour);
+        if (null == start)
+            return NOT_FAST;
+        long base = hasOffset ? start.utcMillis - offsetMillis : start.millis;
+        return base + minute * 60000L + second * 1000L + millis;
+    }
+
+    // The start of the hour, in our time zone and in UTC
+    private Hour hour(int year, int month, int day, int hourOfDay) {
+        long key = ((year * 100L + month) * 100L + day) * 100L + hourOfDay;
+        int slot = (int)((key ^ (key >>> 16)) & (CACHE_SIZE - 1));
+        Hour h = hours[slot];
+        if ((null != h) && (key == h.key))
+            return h;
+        try {
+            LocalDateTime ldt = LocalDateTime.of(year, month, day, hourOfDay, 0);
+            h = new Hour(key, ldt.atZone(zone).toInstant().toEpochMilli(),
+                         ldt.toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+        catch (DateTimeException e) {
+            return null;
+        }
+        hours[slot] = h;
+        return h;
+    }
+
+    public String format(Object o) {
+        Date v = (Date)o;
+        if (v == null)
+            return null;
+        return formatter.format(v.toInstant());
+    }
+}
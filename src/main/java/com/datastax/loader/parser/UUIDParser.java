@@ -15,6 +15,7 @@
  */
 package com.datastax.loader.parser;
 
+import java.text.ParseException;
 import java.util.UUID;
 
 import com.datastax.driver.core.Row;
@@ -27,6 +28,30 @@ public class UUIDParser extends AbstractParser {
             return null;
         return UUID.fromString(toparse);
     }
+    // Canonical 8-4-4-4-12 form, parsed without building a String
+    public UUID parse(char[] buf, int offset, int len) throws ParseException {
+        if ((36 == len) && ('-' == buf[offset + 8]) && ('-' == buf[offset + 13])
+            && ('-' == buf[offset + 18]) && ('-' == buf[offset + 23])) {
+            long msb = 0;
+            long lsb = 0;
+            boolean ok = true;
+            for (int i = 0; (i < 36) && ok; i++) {
+                if ((8 == i) || (13 == i) || (18 == i) || (23 == i))
+                    continue;
+                int d = Character.digit(buf[offset + i], 16);
+                if (0 > d)
+                    ok = false;
+                else if (i < 19)
+                    msb = (msb << 4) | d;
+                else
+                    lsb = (lsb << 4) | d;
+            }
+            if (ok)
+                return new UUID(msb, lsb);
+        }
+        return (UUID)super.parse(buf, offset, len);
+    }
+
     public String format(Object o) {
         UUID v = (UUID)o;
         return v.toString();
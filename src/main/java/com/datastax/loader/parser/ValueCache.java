@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader.parser;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.datastax.driver.core.BoundStatement;
+
+// LRU cache for one column from the field text to the bytes the driver
+// encoded it to, so a repeated value is neither parsed nor encoded again.
+// It holds at most maxEntries values and maxBytes bytes (2 per key char
+// plus the encoded value).  After SAMPLE lookups it turns itself off if
+// fewer than MIN_HIT_RATE of them were hits, since then the column has
+// too many distinct values to be worth caching.
+public class ValueCache {
+    public static final long SAMPLE = 10000;
+    public static final double MIN_HIT_RATE = 0.5;
+
+    private LinkedHashMap<String, ByteBuffer> cache;
+    private int maxEntries;
+    private long maxBytes;
+    private long bytes = 0;
+    private long lookups = 0;
+    private long hits = 0;
+    private boolean enabled = true;
+
+    public ValueCache(int inMaxEntries, long inMaxBytes) {
+        maxEntries = inMaxEntries;
+        maxBytes = inMaxBytes;
+        cache = new LinkedHashMap<String, ByteBuffer>(16, 0.75f, true);
+    }
+
+    public void bind(Parser parser, char[] buf, int offset, int len,
+                     BoundStatement bs, int index) throws ParseException {
+        if (!enabled) {
+            parser.bind(buf, offset, len, bs, index);
+            return;
+        }
+        String key = new String(buf, offset, len);
+        if (!lookup(key, bs, index)) {
+            parser.bind(buf, offset, len, bs, index);
+            put(key, bs.getBytesUnsafe(index));
+        }
+        sample();
+    }
+
+    // The same, for a field univocity split out
+    public void bind(Parser parser, String field, BoundStatement bs,
+                     int index) throws ParseException {
+        if (!enabled) {
+            AbstractParser.setObject(bs, index, parser.parse(field));
+            return;
+        }
+        if (!lookup(field, bs, index)) {
+            AbstractParser.setObject(bs, index, parser.parse(field));
+            put(field, bs.getBytesUnsafe(index));
+        }
+        sample();
+    }
+
+    // Binds the cached value, if there is one
+    private boolean lookup(String key, BoundStatement bs, int index) {
+        lookups++;
+        ByteBuffer value = cache.get(key);
+        if (null == value)
+            return false;
+        hits++;
+        bs.setBytesUnsafe(index, value.duplicate());
+        return true;
+    }
+
+    private void sample() {
+        if ((SAMPLE == lookups) && (hits < MIN_HIT_RATE * lookups)) {
+            enabled = false;
+            cache.clear();
+            bytes = 0;
+        }
+    }
+
+    private void put(String key, ByteBuffer value) {
+        if (null == value)
+            return;
+        long size = 2L * key.length() + value.remaining();
+        if (size > maxBytes)
+            return;
+        cache.put(key, value);
+        bytes += size;
+        Iterator<Map.Entry<String, ByteBuffer>> it = cache.entrySet().iterator();
+        while ((cache.size() > maxEntries) || (bytes > maxBytes)) {
+            Map.Entry<String, ByteBuffer> eldest = it.next();
+            bytes -= 2L * eldest.getKey().length() + eldest.getValue().remaining();
+            it.remove();
+        }
+    }
+
+    public String report() {
+        double hitRate = (0 == lookups) ? 0 : 100.0 * hits / lookups;
+        if (!enabled)
+            return String.format("off after %d lookups (%.1f%% hits)",
+                                 lookups, hitRate);
+        return String.format("%.1f%% hits of %d lookups (%d values, %d bytes)",
+                             hitRate, lookups, cache.size(), bytes);
+    }
+}
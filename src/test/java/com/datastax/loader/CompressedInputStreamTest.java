@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.datastax.loader.CompressedOutputStream.Codec;
+import org.junit.After;
+import org.junit.Test;
+
+// Checks that closing a CompressedInputStream before the end of the file,
+// as the load task does on errors or with -maxRows, stops its
+// decompressor and inflater threads even while they are blocked on a
+// full queue
+public class CompressedInputStreamTest {
+    // Several times what the stream decompresses ahead, so it blocks
+    private static final int NUM_LINES = 1000000;
+
+    private File file = null;
+
+    @After
+    public void tearDown() {
+        if (null != file)
+            file.delete();
+    }
+
+    @Test
+    public void testGzipDroppedPartway() throws Exception {
+        file = File.createTempFile("cistest", ".csv.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < NUM_LINES; i++)
+                out.write(line(i));
+        }
+        finally {
+            out.close();
+        }
+        dropPartway(1);
+    }
+
+    @Test
+    public void testBgzfDroppedPartway() throws Exception {
+        writeBgzf();
+        dropPartway(4);
+    }
+
+    @Test
+    public void testBgzfReadToEnd() throws Exception {
+        writeBgzf();
+        BufferedReader reader = open(4);
+        try {
+            int n = 0;
+            String s;
+            while (null != (s = reader.readLine())) {
+                assertEquals(new String(line(n)), s + "\n");
+                n++;
+            }
+            assertEquals(NUM_LINES, n);
+        }
+        finally {
+            reader.close();
+        }
+        assertEquals(0, liveThreads());
+    }
+
+    private void dropPartway(int numThreads) throws Exception {
+        BufferedReader reader = open(numThreads);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(new String(line(i)), reader.readLine() + "\n");
+        // Let the decompressor fill its queue and block
+        Thread.sleep(500);
+        reader.close();
+        assertEquals(0, liveThreads());
+    }
+
+    private BufferedReader open(int numThreads) throws IOException {
+        Codec codec = CompressedInputStream.detect(file);
+        assertEquals(Codec.GZIP, codec);
+        return new BufferedReader(new InputStreamReader(new CompressedInputStream(file, codec,
+                                                                                  numThreads)));
+    }
+
+    // Waits a little for the inflaters, which are shut down but not
+    // waited for
+    private static int liveThreads() throws InterruptedException {
+        int n = 0;
+        for (int tries = 0; tries < 50; tries++) {
+            n = 0;
+            for (Thread t : Thread.getAllStackTraces().keySet())
+                if (t.isAlive() && ("decompressor".equals(t.getName())
+                                    || "inflater".equals(t.getName())))
+                    n++;
+            if (0 == n)
+                break;
+            Thread.sleep(100);
+        }
+        return n;
+    }
+
+    private static byte[] line(int i) {
+        return ("line " + i + "," + (i * 7919L) + ",some text\n").getBytes();
+    }
+
+    // bgzip's format: gzip members of up to 64KB of input, each with a
+    // "BC" extra field holding the member's size
+    private void writeBgzf() throws IOException {
+        file = File.createTempFile("cistest", ".csv.gz");
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < NUM_LINES; i++) {
+                byte[] l = line(i);
+                if (data.size() + l.length > 60000) {
+                    writeMember(out, data.toByteArray());
+                    data.reset();
+                }
+                data.write(l);
+            }
+            writeMember(out, data.toByteArray());
+            // The empty end-of-file member
+            writeMember(out, new byte[0]);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void writeMember(OutputStream out, byte[] data)
+        throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buf = new byte[data.length + 1024];
+        int clen = 0;
+        while (!deflater.finished())
+            clen += deflater.deflate(buf, clen, buf.length - clen);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        int bsize = 18 + clen + 8;
+        out.write(new byte[] {0x1f, (byte)0x8b, 8, 4, 0, 0, 0, 0, 0, (byte)0xff,
+                              6, 0, 'B', 'C', 2, 0,
+                              (byte)(bsize - 1), (byte)((bsize - 1) >> 8)});
+        out.write(buf, 0, clen);
+        writeInt(out, crc.getValue());
+        writeInt(out, data.length);
+    }
+
+    private static void writeInt(OutputStream out, long v) throws IOException {
+        for (int i = 0; i < 4; i++)
+            out.write((int)(v >> (8 * i)) & 0xFF);
+    }
+}
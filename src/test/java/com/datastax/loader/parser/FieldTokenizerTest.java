@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.univocity.parsers.csv.CsvParser;
+import org.junit.Test;
+
+// Compares FieldTokenizer with univocity, set up the way DelimParser sets
+// it up, on edge cases and a fixed-seed random sample of lines.  Every
+// line the tokenizer handles itself must split into the same fields
+// (univocity's null for an empty field is the tokenizer's empty field),
+// and comment lines are skipped; the rest go to univocity anyway.
+public class FieldTokenizerTest {
+    private static final long SEED = 1;
+    private static final int SAMPLES = 100000;
+    private static final int CHARS_PER_COLUMN = 64;
+    private static final String[] EDGE_CASES = {
+        "", " ", "\t", "a", "a,b", ",", ",,", "a,", ",a", " a , b ",
+        "a b,c d", "\"a\"", "\"a,b\",c", " \"a\" , \"b\" ", "\"\"", "\"\",\"\"",
+        "\" a \"", "\"a\\\"b\"", "\"a\\\\\",b", "\"a\\,b\"", "a\\,b", "a\"b,c",
+        "\"unterminated", "\"a\" x,b", "\"a\"\"b\"", "\"a\\\"", "#comment",
+        "a,#b", "a\tb", "a|b", "[1,2],{\"k\":\"v\"}",
+        "12345678901234567890123456789012345678901234567890123456789012345"
+    };
+    private static final char[] ALPHABET = {
+        'a', 'b', '1', ' ', '\t', ',', '|', '"', '\\', '#'
+    };
+
+    private static List<String> lines() {
+        List<String> lines = new ArrayList<String>(Arrays.asList(EDGE_CASES));
+        Random r = new Random(SEED);
+        for (int i = 0; i < SAMPLES; i++) {
+            char[] line = new char[r.nextInt(20)];
+            for (int j = 0; j < line.length; j++)
+                line[j] = ALPHABET[r.nextInt(ALPHABET.length)];
+            lines.add(new String(line));
+        }
+        return lines;
+    }
+
+    @Test
+    public void testComma() {
+        compare(',', '\0');
+    }
+
+    @Test
+    public void testTab() {
+        compare('\t', '\0');
+    }
+
+    @Test
+    public void testPipeWithComments() {
+        compare('|', '#');
+    }
+
+    private void compare(char delim, char comment) {
+        FieldTokenizer tokenizer = new FieldTokenizer(delim, '"', '\\', comment,
+                                                      CHARS_PER_COLUMN);
+        CsvParser csvp = new CsvParser(DelimParser.csvSettings(delim, '"', '\\',
+                                                               comment,
+                                                               CHARS_PER_COLUMN));
+        int supported = 0;
+        List<String> lines = lines();
+        for (String line : lines) {
+            int n = tokenizer.tokenize(line);
+            if (FieldTokenizer.UNSUPPORTED == n)
+                continue;
+            supported++;
+            String what = "\"" + line + "\"";
+            if (FieldTokenizer.COMMENT == n) {
+                // univocity's parseLine() throws on these
+                assertEquals(what + " is a comment", comment, line.charAt(0));
+                continue;
+            }
+            String[] row = csvp.parseLine(line);
+            assertEquals(what + " fields", row.length, n);
+            for (int i = 0; i < n; i++)
+                assertEquals(what + " field " + i,
+                             (null == row[i]) ? "" : row[i],
+                             tokenizer.getString(i));
+        }
+        // Most lines should not need univocity
+        assertTrue("only " + supported + " of " + lines.size()
+                   + " lines were tokenized", supported > lines.size() / 2);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+// Compares the number parsers, whose simpleLong() and simpleDouble()
+// skip NumberFormat for plain values, with NumberFormat itself, on edge
+// cases and a fixed-seed random sample, for the default locale and the
+// one -decimalDelim , picks, with and without grouping
+public class NumberParserTest {
+    private static final long SEED = 1;
+    private static final int SAMPLES = 100000;
+    private static final String[] EDGE_CASES = {
+        "0", "-0", "0.0", "-0.0", "00012", "-00012", "1.5", "-12.75",
+        ".5", "5.", "-", "-.", ".", "--1", "+5", "1e5", "12abc", "1.2.3",
+        "1,234", "1,234.5", "1.234,5", "1 234", " 1", "1 ",
+        "127", "128", "-128", "-129", "32767", "32768", "-32769",
+        "2147483647", "2147483648", "-2147483648", "-2147483649", "3000000000",
+        "9223372036854775807", "9223372036854775808",
+        "-9223372036854775808", "-9223372036854775809",
+        "123456789012345678901234567890",
+        "0.1", "0.3", "4.35", "999999999999999.9", "123456789012345.6",
+        "1.0000000000000002", "9007199254740993", "1.7976931348623157",
+        "2.2250738585072014", "0.0000000000000000000001",
+        "0.00000000000000000000001", "0.000000000000000000000001",
+        "3.4028235", "1.4E-45"
+    };
+
+    private static List<String> inputs() {
+        List<String> in = new ArrayList<String>(Arrays.asList(EDGE_CASES));
+        Random r = new Random(SEED);
+        for (int i = 0; i < SAMPLES; i++) {
+            if (r.nextBoolean())
+                in.add(Long.toString(r.nextLong() >> r.nextInt(64)));
+            else
+                in.add(String.format(Locale.ENGLISH, "%." + r.nextInt(18) + "f",
+                                     (r.nextDouble() - 0.5)
+                                     * Math.pow(10, r.nextInt(30) - 10)));
+        }
+        return in;
+    }
+
+    @Test
+    public void testEnglish() {
+        compare(Locale.ENGLISH, true);
+        compare(Locale.ENGLISH, false);
+    }
+
+    @Test
+    public void testFrance() {
+        compare(Locale.FRANCE, true);
+        compare(Locale.FRANCE, false);
+    }
+
+    private void compare(Locale locale, boolean grouping) {
+        NumberFormat nf = NumberFormat.getInstance(locale);
+        ((DecimalFormat)nf).setGroupingUsed(grouping);
+        AbstractParser[] parsers = {
+            new IntegerParser(locale, grouping),
+            new LongParser(locale, grouping),
+            new ShortParser(locale, grouping),
+            new ByteParser(locale, grouping),
+            new DoubleParser(locale, grouping),
+            new FloatParser(locale, grouping)
+        };
+        for (String s : inputs()) {
+            for (int k = 0; k < parsers.length; k++) {
+                String what = locale + (grouping ? " grouping " : " ")
+                    + parsers[k].getClass().getSimpleName() + " \"" + s + "\"";
+                Object expected = expected(nf, s, k);
+                assertEquals(what, expected, parseIt(parsers[k], s));
+                // Also from the middle of a buffer, as with -fastTokenizer
+                char[] buf = ("xx" + s + "yy").toCharArray();
+                assertEquals(what + " in a buffer", expected,
+                             parse(parsers[k], buf, 2, s.length()));
+            }
+        }
+    }
+
+    private static Object expected(NumberFormat nf, String s, int k) {
+        if (0 == s.length())
+            return null;
+        Number n;
+        try {
+            n = nf.parse(s);
+        }
+        catch (ParseException e) {
+            return "ParseException";
+        }
+        switch (k) {
+        case 0: return n.intValue();
+        case 1: return n.longValue();
+        case 2: return n.shortValue();
+        case 3: return n.byteValue();
+        case 4: return n.doubleValue();
+        default: return n.floatValue();
+        }
+    }
+
+    private static Object parseIt(AbstractParser p, String s) {
+        try {
+            return p.parseIt(s);
+        }
+        catch (ParseException e) {
+            return "ParseException";
+        }
+    }
+
+    private static Object parse(Parser p, char[] buf, int offset, int len) {
+        if (0 == len)
+            return null;
+        try {
+            return p.parse(buf, offset, len);
+        }
+        catch (ParseException e) {
+            return "ParseException";
+        }
+    }
+}
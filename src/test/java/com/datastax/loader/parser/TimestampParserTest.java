@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015 Brian Hess
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.loader.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Compares TimestampParser with DateParser (SimpleDateFormat) for a range
+// of -dateFormat patterns, on edge cases and a fixed-seed random sample
+// of values in many shapes, in a time zone with daylight saving time.
+// Whenever TimestampParser returns a value, DateParser must return the
+// same one.  The exceptions are epoch milliseconds, which TimestampParser
+// also accepts, and ISO-8601 values with no -dateFormat, which
+// SimpleDateFormat's default pattern does not read at all.
+public class TimestampParserTest {
+    private static final long SEED = 1;
+    private static final int SAMPLES = 2000;
+    private static final String[] FORMATS = {
+        null,
+        "yyyy-MM-dd HH:mm:ss",
+        "yyyy-MM-dd HH:mm",
+        "yyyy-MM-dd'T'HH:mm:ss",
+        "yyyy-MM-dd HH:mm:ss.SSS",
+        "yyyy-MM-dd'T'HH:mm:ss.SSS",
+        "yyyy-MM-dd'T'HH:mm:ssXXX",
+        "yyyy-MM-dd'T'HH:mm:ss.SSSXXX",
+        "yyyy-MM-dd'T'HH:mm:ss'Z'",
+        "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",
+        "yyyy-MM-dd",
+        "yyyyMMddHHmmss",
+        "yyyyMMdd",
+        "MM/dd/yyyy HH:mm:ss",
+        "dd-MMM-yyyy HH:mm"
+    };
+    private static final String[] EDGE_CASES = {
+        "2017-01-01", "2017-01-01 00:00", "2017-01-01 00:00:00",
+        "2017-01-01T00:00:00", "2017-01-01T00:00:00Z",
+        "2017-01-01T00:00:00.5", "2017-01-01T00:00:00.5Z",
+        "2017-01-01 00:00:00.5", "2017-01-01 00:00:00.05",
+        "2017-01-01 00:00:00.123", "2017-01-01 00:00:00.1234",
+        "2017-01-01T12:34:56.789+05:30", "2017-01-01T12:34:56-08:00",
+        // Daylight saving time starts and ends in America/New_York
+        "2017-03-12 01:59:59", "2017-03-12 03:00:00",
+        "2017-11-05 00:59:59", "2017-11-05 02:00:00",
+        "2017-02-29 00:00:00", "2017-13-01 00:00:00", "2017-01-01 24:00:00",
+        "20170101", "20170101123456", "1483228800000", "-86400000", "0",
+        "01/02/2017 03:04:05", "02-Jan-2017 03:04", "1/2/17 3:04 PM"
+    };
+    private static final String[] SHAPES = {
+        "yyyy-MM-dd", "yyyy-MM-dd HH:mm", "yyyy-MM-dd HH:mm:ss",
+        "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd HH:mm:ss.S",
+        "yyyy-MM-dd HH:mm:ss.SS", "yyyy-MM-dd HH:mm:ss.SSS",
+        "yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss'Z'",
+        "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", "yyyy-MM-dd'T'HH:mm:ssXXX",
+        "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "yyyyMMdd", "yyyyMMddHHmmss",
+        "MM/dd/yyyy HH:mm:ss", "dd-MMM-yyyy HH:mm"
+    };
+
+    private TimeZone defaultZone;
+
+    @Before
+    public void setUp() {
+        defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultZone);
+    }
+
+    private static List<String> inputs() {
+        List<String> in = new ArrayList<String>(Arrays.asList(EDGE_CASES));
+        Random r = new Random(SEED);
+        SimpleDateFormat dflt = new SimpleDateFormat();
+        for (int i = 0; i < SAMPLES; i++) {
+            // 1970 to 2037
+            Date d = new Date((long)(r.nextDouble() * 2145916800000L));
+            String shape = SHAPES[r.nextInt(SHAPES.length)];
+            SimpleDateFormat f = new SimpleDateFormat(shape, Locale.ENGLISH);
+            if (shape.endsWith("XXX"))
+                f.setTimeZone(TimeZone.getTimeZone(r.nextBoolean() ? "UTC"
+                                                   : "Asia/Kolkata"));
+            in.add(f.format(d));
+            in.add(dflt.format(d));
+            in.add(Long.toString(d.getTime()));
+        }
+        return in;
+    }
+
+    @Test
+    public void testAgainstDateParser() {
+        List<String> inputs = inputs();
+        for (String format : FORMATS) {
+            TimestampParser tp = new TimestampParser(format);
+            DateParser dp = new DateParser(format);
+            for (String s : inputs) {
+                String what = format + " \"" + s + "\"";
+                Date t = parse(tp, s);
+                if (null == t)
+                    continue;
+                Date d = parse(dp, s);
+                if (isDigits(s) && !TimestampParser.canBeAllDigits(pattern(format))) {
+                    assertEquals(what + " as epoch", Long.parseLong(s), t.getTime());
+                }
+                else if ((null != format) || (null != d)) {
+                    assertEquals(what, d, t);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCanBeAllDigits() {
+        assertTrue(TimestampParser.canBeAllDigits("yyyyMMdd"));
+        assertTrue(TimestampParser.canBeAllDigits("yyyyMMddHHmmss"));
+        assertTrue(TimestampParser.canBeAllDigits("yyyyMMdd'0'"));
+        assertFalse(TimestampParser.canBeAllDigits("yyyy-MM-dd"));
+        assertFalse(TimestampParser.canBeAllDigits("yyyyMMMdd"));
+        assertFalse(TimestampParser.canBeAllDigits("yyyyMMdd'T'HHmmss"));
+        assertFalse(TimestampParser.canBeAllDigits("yyyyMMddHHmmssXX"));
+        assertFalse(TimestampParser.canBeAllDigits("yyyyMMdd''"));
+        assertFalse(TimestampParser.canBeAllDigits(new SimpleDateFormat().toPattern()));
+    }
+
+    // A date that looks like epoch milliseconds is a date when the format
+    // can produce it
+    @Test
+    public void testDigitsDate() throws ParseException {
+        Date d = new TimestampParser("yyyyMMdd").parseIt("20170101");
+        assertEquals(new DateParser("yyyyMMdd").parseIt("20170101"), d);
+        assertEquals(20170101L, new TimestampParser("yyyy-MM-dd").parseIt("20170101").getTime());
+    }
+
+    private static String pattern(String format) {
+        return (null == format) ? new SimpleDateFormat().toPattern() : format;
+    }
+
+    private static boolean isDigits(String s) {
+        return s.matches("-?[0-9]+");
+    }
+
+    private static Date parse(AbstractParser p, String s) {
+        try {
+            return (Date)p.parseIt(s);
+        }
+        catch (ParseException e) {
+            return null;
+        }
+    }
+}